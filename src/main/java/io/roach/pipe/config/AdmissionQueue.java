@@ -0,0 +1,184 @@
+package io.roach.pipe.config;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntFunction;
+
+/**
+ * Reserves the connections of a pool for leases. Requests beyond the unreserved
+ * connections are queued and admitted as connections are released, taking turns
+ * between clients so that one client with many requests can't crowd out the others.
+ * Arrivals don't overtake queued requests, and a request larger than the unreserved
+ * connections waits for enough of them rather than be overtaken indefinitely.
+ *
+ * @param <T> lease type
+ */
+public class AdmissionQueue<T> {
+    private final String name;
+
+    private final IntFunction<T> leaseFactory;
+
+    private int connections;
+
+    private int freeConnections;
+
+    private int leases;
+
+    // Queued requests by client, clients take turns in insertion order
+    private final LinkedHashMap<String, ArrayDeque<Waiter<T>>> waiters = new LinkedHashMap<>();
+
+    private int waiting;
+
+    /**
+     * @param name pool name for error messages
+     * @param connections number of connections of the pool
+     * @param leaseFactory creates a lease for a number of reserved connections, which
+     * must be returned with {@link #release(int)}
+     */
+    public AdmissionQueue(String name, int connections, IntFunction<T> leaseFactory) {
+        this.name = name;
+        this.connections = connections;
+        this.freeConnections = connections;
+        this.leaseFactory = leaseFactory;
+    }
+
+    /**
+     * @param connections number of connections to reserve
+     * @param client client to take turns with while queued
+     * @param maxQueue max number of queued requests
+     * @return the lease, completed once admitted. Cancelling it drops the request
+     * from the queue, or releases the connections if admitted meanwhile.
+     * @throws SourceBusyException if the queue is full
+     */
+    public CompletableFuture<T> reserve(int connections, String client, int maxQueue) {
+        synchronized (this) {
+            if (waiting == 0 && connections <= freeConnections) {
+                freeConnections -= connections;
+                leases++;
+            } else {
+                if (waiting >= maxQueue) {
+                    purge();
+                }
+                if (waiting >= maxQueue) {
+                    throw new SourceBusyException("All " + this.connections + " connections to ["
+                            + name + "] are in use" + (maxQueue > 0 ? " and " + waiting + " copies queued" : ""));
+                }
+                Waiter<T> waiter = new Waiter<>(connections);
+                waiters.computeIfAbsent(client, k -> new ArrayDeque<>()).add(waiter);
+                waiting++;
+                return waiter.future;
+            }
+        }
+        return CompletableFuture.completedFuture(leaseFactory.apply(connections));
+    }
+
+    /**
+     * Returns the connections of a lease and admits queued requests.
+     */
+    public void release(int connections) {
+        final List<Waiter<T>> admitted;
+        synchronized (this) {
+            freeConnections += connections;
+            leases--;
+            admitted = admit();
+        }
+        complete(admitted);
+    }
+
+    /**
+     * Adds connections as the pool grows, queued requests are admitted by {@link #admitQueued()}.
+     */
+    public synchronized void resize(int delta) {
+        connections += delta;
+        freeConnections += delta;
+    }
+
+    /**
+     * Admits queued requests for which there are enough unreserved connections.
+     */
+    public void admitQueued() {
+        final List<Waiter<T>> admitted;
+        synchronized (this) {
+            admitted = admit();
+        }
+        complete(admitted);
+    }
+
+    /**
+     * @return true if there are no leases nor queued requests
+     */
+    public synchronized boolean isIdle() {
+        return leases == 0 && waiting == 0;
+    }
+
+    public synchronized int getFreeConnections() {
+        return freeConnections;
+    }
+
+    public synchronized int getWaiting() {
+        return waiting;
+    }
+
+    // Completes outside of the lock, since completion runs the dependents of the lease
+    private void complete(List<Waiter<T>> admitted) {
+        for (Waiter<T> waiter : admitted) {
+            // Cancelled after being admitted
+            if (!waiter.future.complete(leaseFactory.apply(waiter.connections))) {
+                release(waiter.connections);
+            }
+        }
+    }
+
+    private List<Waiter<T>> admit() {
+        final List<Waiter<T>> admitted = new ArrayList<>();
+        while (!waiters.isEmpty()) {
+            Map.Entry<String, ArrayDeque<Waiter<T>>> turn = waiters.entrySet().iterator().next();
+            ArrayDeque<Waiter<T>> queue = turn.getValue();
+            Waiter<T> waiter = queue.peek();
+            if (!waiter.future.isDone()) {
+                if (waiter.connections > freeConnections) {
+                    break;
+                }
+                freeConnections -= waiter.connections;
+                leases++;
+                admitted.add(waiter);
+            }
+            queue.poll();
+            waiting--;
+            waiters.remove(turn.getKey());
+            if (!queue.isEmpty()) {
+                waiters.put(turn.getKey(), queue);
+            }
+        }
+        return admitted;
+    }
+
+    // Drops requests cancelled while queued
+    private void purge() {
+        Iterator<ArrayDeque<Waiter<T>>> it = waiters.values().iterator();
+        while (it.hasNext()) {
+            ArrayDeque<Waiter<T>> queue = it.next();
+            waiting -= queue.size();
+            queue.removeIf(waiter -> waiter.future.isDone());
+            waiting += queue.size();
+            if (queue.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    private static class Waiter<T> {
+        private final int connections;
+
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Waiter(int connections) {
+            this.connections = connections;
+        }
+    }
+}
@@ -1,37 +1,91 @@
 package io.roach.pipe.config;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.aop.interceptor.AsyncUncaughtExceptionHandler;
 import org.springframework.aop.interceptor.SimpleAsyncUncaughtExceptionHandler;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.scheduling.annotation.AsyncConfigurer;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.DeferredResultProcessingInterceptor;
 import org.springframework.web.context.request.async.TimeoutCallableProcessingInterceptor;
 import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import io.roach.pipe.io.Cancellation;
+
 @Configuration
 @EnableAsync
+@EnableScheduling
 public class AsyncConfig implements AsyncConfigurer {
     private final Logger logger = LoggerFactory.getLogger(AsyncConfig.class);
 
+    @Value("${pipe.executor.type}")
+    private String executorType;
+
+    @Value("${pipe.executor.max-threads}")
+    private int maxThreads;
+
     @Override
     @Bean(name = "taskExecutor")
     public AsyncTaskExecutor getAsyncExecutor() {
         logger.info("Bootstrapping Async Task Executor");
+        return createExecutor("task-");
+    }
+
+    @Bean(name = "copyExecutor")
+    public AsyncTaskExecutor copyExecutor() {
+        return createExecutor("copy-");
+    }
 
+    /**
+     * Copies spend most of their time blocked on source and client I/O, so they get a
+     * thread each rather than queueing behind long running copies. Their number is
+     * bounded by available source connections instead, see {@link DataSourceFactory}.
+     */
+    private AsyncTaskExecutor createExecutor(String threadNamePrefix) {
+        boolean virtual;
+        if ("auto".equals(executorType)) {
+            virtual = VirtualThreads.isPinningFree();
+        } else if ("virtual".equals(executorType) || "elastic".equals(executorType)) {
+            virtual = "virtual".equals(executorType);
+        } else {
+            throw new IllegalArgumentException("Unsupported executor type: " + executorType);
+        }
+
+        if (virtual) {
+            ExecutorService executorService = VirtualThreads.newThreadPerTaskExecutor(threadNamePrefix);
+            if (executorService != null) {
+                logger.info("Using virtual threads for [{}] executor", threadNamePrefix);
+                return new ConcurrentTaskExecutor(executorService);
+            }
+            logger.warn("Virtual threads not supported by this JDK, using an elastic pool for [{}] executor",
+                    threadNamePrefix);
+        }
+
+        logger.info("Using an elastic pool of up to {} threads for [{}] executor", maxThreads, threadNamePrefix);
+
+        // No queue so that tasks, including partitions and pipeline stages of a copy, always run concurrently
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         executor.setCorePoolSize(Runtime.getRuntime().availableProcessors());
-        executor.setMaxPoolSize(250);
-        executor.setQueueCapacity(25);
+        executor.setMaxPoolSize(maxThreads);
+        executor.setQueueCapacity(0);
+        executor.setKeepAliveSeconds(60);
+        executor.setThreadNamePrefix(threadNamePrefix);
 
         return executor;
     }
@@ -42,26 +96,68 @@ public class AsyncConfig implements AsyncConfigurer {
     }
 
     @Bean
-    public WebMvcConfigurer webMvcConfigurerConfigurer(AsyncTaskExecutor taskExecutor,
-                                                       CallableProcessingInterceptor callableProcessingInterceptor) {
+    public WebMvcConfigurer webMvcConfigurerConfigurer(@Qualifier("taskExecutor") AsyncTaskExecutor taskExecutor,
+                                                       CallableProcessingInterceptor callableProcessingInterceptor,
+                                                       DeferredResultProcessingInterceptor deferredResultProcessingInterceptor) {
         return new WebMvcConfigurer() {
             @Override
             public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
                 configurer.setDefaultTimeout(2 * 60 * 60 * 1_000).setTaskExecutor(taskExecutor);
                 configurer.registerCallableInterceptors(callableProcessingInterceptor);
+                configurer.registerDeferredResultInterceptors(deferredResultProcessingInterceptor);
                 WebMvcConfigurer.super.configureAsyncSupport(configurer);
             }
         };
     }
 
+    /**
+     * Cancels the copy of a timed out or failed request, since interrupting the thread
+     * streaming the response doesn't unblock reads from the source, and releases what
+     * it still holds once the request completes either way.
+     */
     @Bean
     public CallableProcessingInterceptor callableProcessingInterceptor() {
         return new TimeoutCallableProcessingInterceptor() {
             @Override
             public <T> Object handleTimeout(NativeWebRequest request, Callable<T> task) throws Exception {
                 logger.warn("Callable timeout");
+                cancelCopy(request);
                 return super.handleTimeout(request, task);
             }
+
+            @Override
+            public <T> Object handleError(NativeWebRequest request, Callable<T> task, Throwable t) {
+                logger.warn("Callable error: {}", t.toString());
+                cancelCopy(request);
+                return RESULT_NONE;
+            }
+
+            @Override
+            public <T> void afterCompletion(NativeWebRequest request, Callable<T> task) {
+                cancelCopy(request);
+            }
+        };
+    }
+
+    /**
+     * Releases what a copy holds if the request completes without streaming a response,
+     * for example when dispatching the result of an admitted copy fails.
+     */
+    @Bean
+    public DeferredResultProcessingInterceptor deferredResultProcessingInterceptor() {
+        return new DeferredResultProcessingInterceptor() {
+            @Override
+            public <T> void afterCompletion(NativeWebRequest request, DeferredResult<T> deferredResult) {
+                cancelCopy(request);
+            }
         };
     }
+
+    private static void cancelCopy(NativeWebRequest request) {
+        Cancellation cancellation = (Cancellation) request.getAttribute(Cancellation.ATTRIBUTE,
+                RequestAttributes.SCOPE_REQUEST);
+        if (cancellation != null) {
+            cancellation.cancel();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,22 @@
+package io.roach.pipe.config;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import io.roach.pipe.io.ResultCache;
+
+@Configuration
+public class CacheConfig {
+    @Bean
+    public ResultCache resultCache(@Value("${pipe.cache.directory}") String directory,
+                                   @Value("${pipe.cache.max-size}") DataSize maxSize,
+                                   @Value("${pipe.cache.time-to-live}") Duration timeToLive) throws IOException {
+        return new ResultCache(Paths.get(directory), maxSize.toBytes(), timeToLive);
+    }
+}
@@ -1,23 +1,46 @@
 package io.roach.pipe.config;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+import javax.annotation.PreDestroy;
 import javax.sql.DataSource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
 
 import com.zaxxer.hikari.HikariDataSource;
 
 import net.ttddyy.dsproxy.listener.logging.SLF4JLogLevel;
 import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
 
+/**
+ * Creates and caches one connection pool per source url, user and password. Pools are
+ * closed when idle for longer than the idle timeout or, least recently used first, when
+ * the cache exceeds its max size. Pools with open leases are never evicted.
+ * <p>
+ * Leases reserve the connections they need up front, so that copies beyond what a pool
+ * can serve are queued or turned away rather than time out waiting for a connection.
+ * Queued lease requests are admitted as connections are released, see {@link AdmissionQueue}.
+ */
 @Component
 public class DataSourceFactory {
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
     protected final Logger traceLogger = LoggerFactory.getLogger("io.roach.sql_trace");
 
     @Value("${spring.datasource.hikari.maximum-pool-size}")
@@ -26,28 +49,280 @@ public class DataSourceFactory {
     @Value("${spring.datasource.hikari.minimum-idle}")
     private int minimumIdle;
 
-    public DataSource createDataSource(Map<String, String> allParams) {
-        final String url = allParams.get("url");
-        final String user = allParams.get("user");
-        final String password = allParams.get("password");
+    @Value("${pipe.datasource.max-pools}")
+    private int maxPools;
 
-        DataSourceProperties properties = new DataSourceProperties();
-        properties.setUrl(url);
-        properties.setUsername(user);
-        properties.setPassword(password);
+    @Value("${pipe.datasource.max-pool-size}")
+    private int maxPoolSize;
+
+    @Value("${pipe.datasource.idle-timeout}")
+    private Duration idleTimeout;
+
+    @Value("${pipe.admission.max-queue}")
+    private int maxQueue;
+
+    // Access ordered for LRU eviction
+    private final LinkedHashMap<String, CachedDataSource> dataSourceCache = new LinkedHashMap<>(16, 0.75f, true);
+
+    static class CachedDataSource {
+        private final String sourceName;
+
+        private final HikariDataSource pool;
+
+        private final DataSource dataSource;
+
+        private final AdmissionQueue<DataSourceLease> admissionQueue;
+
+        // Connections held on top of the max pool size, not reserved through the queue
+        private int heldConnections;
+
+        private volatile long lastAccessTime = System.nanoTime();
+
+        private volatile String databaseVersion;
+
+        CachedDataSource(String sourceName, HikariDataSource pool, DataSource dataSource) {
+            this.sourceName = sourceName;
+            this.pool = pool;
+            this.dataSource = dataSource;
+            this.admissionQueue = new AdmissionQueue<>(sourceName, pool.getMaximumPoolSize(),
+                    connections -> new DataSourceLease(this, connections, false));
+        }
+
+        String getSourceName() {
+            return sourceName;
+        }
+
+        DataSource getDataSource() {
+            return dataSource;
+        }
+
+        String getDatabaseVersion() {
+            // Benign race, at worst probed more than once
+            String version = databaseVersion;
+            if (version == null) {
+                version = probeDatabaseVersion(dataSource);
+                databaseVersion = version;
+            }
+            return version;
+        }
+
+        void release(int reservedConnections) {
+            lastAccessTime = System.nanoTime();
+            admissionQueue.release(reservedConnections);
+        }
+
+        /**
+         * @return max pool size for reserved connections, excluding held connections
+         */
+        synchronized int getMaximumPoolSize() {
+            return pool.getMaximumPoolSize() - heldConnections;
+        }
+
+        synchronized void setMaximumPoolSize(int poolSize) {
+            pool.getHikariConfigMXBean().setMaximumPoolSize(poolSize + heldConnections);
+        }
+
+        synchronized DataSourceLease hold() {
+            heldConnections++;
+            pool.getHikariConfigMXBean().setMaximumPoolSize(pool.getMaximumPoolSize() + 1);
+            return new DataSourceLease(this, 1, true);
+        }
+
+        synchronized void unhold() {
+            lastAccessTime = System.nanoTime();
+            heldConnections--;
+            pool.getHikariConfigMXBean().setMaximumPoolSize(pool.getMaximumPoolSize() - 1);
+        }
+
+        synchronized boolean isIdle() {
+            return heldConnections == 0 && admissionQueue.isIdle();
+        }
+    }
+
+    /**
+     * Leases a pooled data source with one connection reserved, without queueing.
+     *
+     * @throws SourceBusyException if the pool has no connection unreserved
+     * @see #acquire(Map, int, String)
+     */
+    public DataSourceLease acquire(Map<String, String> allParams) {
+        return lease(allParams, 1, null, 0, false).join();
+    }
+
+    /**
+     * Leases a pooled data source with one connection held on top of the max pool size
+     * until closed, for connections held for long such as by exported snapshots. Held
+     * connections don't count against admission, copies can still reserve all others.
+     *
+     * @see #acquire(Map, int, String)
+     */
+    public DataSourceLease hold(Map<String, String> allParams) {
+        return lease(allParams, 1, null, 0, true).join();
+    }
 
-        return createDataSource(properties);
+    /**
+     * Leases a pooled data source for the source given by the url, user and password
+     * params, creating the pool if needed. The optional poolSize param raises the max
+     * size of the pool, which never shrinks while cached.
+     *
+     * @param connections number of connections to reserve for the lease
+     * @param client client to take turns with while queued
+     * @return the lease, completed once admitted. Cancelling it drops the request
+     * from the queue, or closes the lease if admitted meanwhile.
+     * @throws IllegalArgumentException if poolSize is out of range or the pool can't
+     * ever serve the number of connections
+     * @throws SourceBusyException if the queue of the source is full
+     */
+    public CompletableFuture<DataSourceLease> acquire(Map<String, String> allParams, int connections,
+                                                      String client) {
+        return lease(allParams, connections, client, maxQueue, false);
     }
 
-    public DataSource createDataSource(DataSourceProperties properties) {
+    private CompletableFuture<DataSourceLease> lease(Map<String, String> allParams, int connections,
+                                                     String client, int maxQueue, boolean held) {
+        final int poolSize = allParams.containsKey("poolSize")
+                ? Integer.parseInt(allParams.get("poolSize"))
+                : maximumPoolSize;
+        if (poolSize < 1 || poolSize > maxPoolSize) {
+            throw new IllegalArgumentException("Param [poolSize] must be > 0 and <= " + maxPoolSize);
+        }
+
+        final String key = toDataSourceKey(allParams);
+        final CompletableFuture<DataSourceLease> lease;
+        final List<CachedDataSource> evicted;
+        CachedDataSource resized = null;
+
+        synchronized (dataSourceCache) {
+            CachedDataSource cachedDataSource = dataSourceCache.get(key);
+            if (cachedDataSource == null) {
+                HikariDataSource pool = createPool(allParams, poolSize);
+                cachedDataSource = new CachedDataSource(toSourceName(allParams), pool, wrap(pool));
+                dataSourceCache.put(key, cachedDataSource);
+                logger.info("Created pool for [{}] with max size {}", cachedDataSource.sourceName, poolSize);
+            } else if (poolSize > cachedDataSource.getMaximumPoolSize()) {
+                int delta = poolSize - cachedDataSource.getMaximumPoolSize();
+                cachedDataSource.setMaximumPoolSize(poolSize);
+                cachedDataSource.admissionQueue.resize(delta);
+                resized = cachedDataSource;
+                logger.info("Raised max size of pool for [{}] to {}", cachedDataSource.sourceName, poolSize);
+            }
+            cachedDataSource.lastAccessTime = System.nanoTime();
+
+            int maxConnections = cachedDataSource.getMaximumPoolSize();
+            if (held) {
+                lease = CompletableFuture.completedFuture(cachedDataSource.hold());
+            } else if (connections > maxConnections) {
+                throw new IllegalArgumentException("Copy needs " + connections
+                        + " connections but the pool max size is " + maxConnections + ", raise [poolSize]");
+            } else {
+                lease = cachedDataSource.admissionQueue.reserve(connections, client, maxQueue);
+            }
+            evicted = evict();
+        }
+
+        // Admits queued requests outside of the cache lock, also if turned away
+        if (resized != null) {
+            resized.admissionQueue.admitQueued();
+        }
+        evicted.forEach(this::closePool);
+        return lease;
+    }
+
+    @Scheduled(fixedDelayString = "${pipe.datasource.eviction-interval}")
+    public void evictIdle() {
+        final List<CachedDataSource> evicted;
+        synchronized (dataSourceCache) {
+            evicted = evict();
+        }
+        evicted.forEach(this::closePool);
+    }
+
+    @PreDestroy
+    public void closeAll() {
+        final List<CachedDataSource> evicted;
+        synchronized (dataSourceCache) {
+            evicted = new ArrayList<>(dataSourceCache.values());
+            dataSourceCache.clear();
+        }
+        evicted.forEach(this::closePool);
+    }
+
+    private List<CachedDataSource> evict() {
+        final long now = System.nanoTime();
+        final List<CachedDataSource> evicted = new ArrayList<>();
+
+        int overflow = dataSourceCache.size() - maxPools;
+        Iterator<CachedDataSource> it = dataSourceCache.values().iterator();
+        while (it.hasNext()) {
+            CachedDataSource cachedDataSource = it.next();
+            if (!cachedDataSource.isIdle()) {
+                continue;
+            }
+            if (overflow > 0 || now - cachedDataSource.lastAccessTime > idleTimeout.toNanos()) {
+                it.remove();
+                evicted.add(cachedDataSource);
+                overflow--;
+            }
+        }
+        return evicted;
+    }
+
+    private void closePool(CachedDataSource cachedDataSource) {
+        logger.info("Closing pool for [{}]", cachedDataSource.sourceName);
+        cachedDataSource.pool.close();
+    }
+
+    /**
+     * @return true if both sets of params are served by the same pool
+     */
+    public boolean isSamePool(Map<String, String> allParams, Map<String, String> otherParams) {
+        return toDataSourceKey(allParams).equals(toDataSourceKey(otherParams));
+    }
+
+    /**
+     * @return a consistent order of the pools serving both sets of params, negative if
+     * the first comes first, for leasing connections of several pools one after the other
+     */
+    public int comparePools(Map<String, String> allParams, Map<String, String> otherParams) {
+        return toDataSourceKey(allParams).compareTo(toDataSourceKey(otherParams));
+    }
+
+    private String toDataSourceKey(Map<String, String> allParams) {
+        String password = allParams.getOrDefault("password", "");
+        return allParams.get("url") + "|" + allParams.get("user") + "|"
+                + DigestUtils.md5DigestAsHex(password.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return user and url without params, which may hold credentials
+     */
+    public String toSourceName(Map<String, String> allParams) {
+        String url = allParams.get("url");
+        for (char separator : new char[] {'?', ';'}) {
+            int i = url.indexOf(separator);
+            if (i > 0) {
+                url = url.substring(0, i);
+            }
+        }
+        return allParams.get("user") + "@" + url;
+    }
+
+    private HikariDataSource createPool(Map<String, String> allParams, int poolSize) {
+        DataSourceProperties properties = new DataSourceProperties();
+        properties.setUrl(allParams.get("url"));
+        properties.setUsername(allParams.get("user"));
+        properties.setPassword(allParams.get("password"));
+
         HikariDataSource ds = new HikariDataSource();
         ds.setDataSource(properties.initializeDataSourceBuilder().build());
         ds.setAutoCommit(true);
-        ds.setMaximumPoolSize(maximumPoolSize);
-        ds.setMinimumIdle(minimumIdle);
-        ds.setPoolName(properties.getName());
-        ds.setConnectionInitSql("select 1");
+        ds.setMaximumPoolSize(poolSize);
+        ds.setMinimumIdle(Math.min(minimumIdle, poolSize));
+        // No connection test query or init SQL, Hikari validates with JDBC4 isValid
+        return ds;
+    }
 
+    private DataSource wrap(HikariDataSource ds) {
         return traceLogger.isDebugEnabled() ?
                 ProxyDataSourceBuilder
                         .create(ds)
@@ -59,7 +334,14 @@ public class DataSourceFactory {
                 : ds;
     }
 
-    public String databaseVersion(DataSource dataSource) {
-        return new JdbcTemplate(dataSource).queryForObject("select version()", String.class);
+    private static String probeDatabaseVersion(DataSource dataSource) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        try {
+            return jdbcTemplate.queryForObject("select version()", String.class);
+        } catch (DataAccessException e) {
+            return jdbcTemplate.execute((ConnectionCallback<String>) connection ->
+                    connection.getMetaData().getDatabaseProductName() + " "
+                            + connection.getMetaData().getDatabaseProductVersion());
+        }
     }
 }
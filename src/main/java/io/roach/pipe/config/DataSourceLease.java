@@ -0,0 +1,55 @@
+package io.roach.pipe.config;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.sql.DataSource;
+
+/**
+ * A claim on a cached source pool and a number of its connections, which keeps it from
+ * being evicted until closed. Closing the lease doesn't close the pool, which is shared
+ * by all leases on the same source.
+ */
+public class DataSourceLease implements AutoCloseable {
+    private final DataSourceFactory.CachedDataSource cachedDataSource;
+
+    private final int connections;
+
+    private final boolean held;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    DataSourceLease(DataSourceFactory.CachedDataSource cachedDataSource, int connections, boolean held) {
+        this.cachedDataSource = cachedDataSource;
+        this.connections = connections;
+        this.held = held;
+    }
+
+    public DataSource getDataSource() {
+        return cachedDataSource.getDataSource();
+    }
+
+    /**
+     * @return source name for logging and metric tags, without credentials
+     */
+    public String getSourceName() {
+        return cachedDataSource.getSourceName();
+    }
+
+    /**
+     * @return the database version, probed once per pool
+     */
+    public String getDatabaseVersion() {
+        return cachedDataSource.getDatabaseVersion();
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            if (held) {
+                cachedDataSource.unhold();
+            } else {
+                cachedDataSource.release(connections);
+            }
+        }
+    }
+}
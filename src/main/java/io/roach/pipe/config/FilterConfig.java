@@ -13,6 +13,7 @@ public class FilterConfig {
         registrationBean.setFilter(requestLoggingFilter());
         registrationBean.addUrlPatterns("/copy/*");
         registrationBean.addUrlPatterns("/download/*");
+        registrationBean.addUrlPatterns("/plan/*");
         return registrationBean;
     }
 
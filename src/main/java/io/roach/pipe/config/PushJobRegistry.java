@@ -0,0 +1,98 @@
+package io.roach.pipe.config;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.roach.pipe.io.PushJob;
+
+/**
+ * Keeps push jobs for status queries, until removed or for the retention period after
+ * they ended.
+ */
+@Component
+public class PushJobRegistry {
+    @Value("${pipe.push.retention}")
+    private Duration retention;
+
+    @Value("${pipe.admission.queue-timeout}")
+    private Duration queueTimeout;
+
+    // Insertion ordered, for listing in order of creation
+    private final Map<String, PushJob> jobs = new LinkedHashMap<>();
+
+    public void register(PushJob job) {
+        synchronized (jobs) {
+            jobs.put(job.getId(), job);
+        }
+    }
+
+    /**
+     * @return the job, or null if removed or never created
+     */
+    public PushJob get(String id) {
+        synchronized (jobs) {
+            return jobs.get(id);
+        }
+    }
+
+    public List<PushJob> getAll() {
+        synchronized (jobs) {
+            return new ArrayList<>(jobs.values());
+        }
+    }
+
+    /**
+     * Removes a job, cancelling it first if not yet ended.
+     *
+     * @return true if the job was kept
+     */
+    public boolean remove(String id) {
+        final PushJob job;
+        synchronized (jobs) {
+            job = jobs.remove(id);
+        }
+        if (job == null) {
+            return false;
+        }
+        job.cancel();
+        return true;
+    }
+
+    @Scheduled(fixedDelayString = "${pipe.datasource.eviction-interval}")
+    public void removeExpired() {
+        final Instant expiry = Instant.now().minus(retention);
+        synchronized (jobs) {
+            jobs.values().removeIf(job -> job.isDone() && job.getEndTime().isBefore(expiry));
+        }
+    }
+
+    /**
+     * Fails jobs queued for connections for longer than the queue timeout, which
+     * otherwise could hold the connections of one pool while waiting for the other.
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void expireQueued() {
+        final Instant expiry = Instant.now().minus(queueTimeout);
+        for (PushJob job : getAll()) {
+            if (job.getStatus() == PushJob.Status.QUEUED && job.getCreateTime().isBefore(expiry)) {
+                job.expire("Timed out waiting for connections to [" + job.getSource()
+                        + "] and [" + job.getTarget() + "]");
+            }
+        }
+    }
+
+    @PreDestroy
+    public void cancelAll() {
+        getAll().forEach(PushJob::cancel);
+    }
+}
@@ -0,0 +1,231 @@
+package io.roach.pipe.config;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.roach.pipe.io.Snapshot;
+
+/**
+ * Takes snapshots of source databases for copies of several tables from the same point
+ * in time. CockroachDB snapshots are plain timestamps, read with {@code AS OF SYSTEM TIME}
+ * until garbage collected by the source. PostgreSQL snapshots are exported by a
+ * transaction held open here, on a connection held on top of the source pool size so
+ * that copies from the snapshot can still use all connections of the pool, until
+ * released or unused for longer than the idle timeout. Holding a snapshot keeps the
+ * source from vacuuming rows deleted since.
+ */
+@Component
+public class SnapshotRegistry {
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    private DataSourceFactory dataSourceFactory;
+
+    @Value("${pipe.snapshot.idle-timeout}")
+    private Duration idleTimeout;
+
+    @Value("${pipe.snapshot.max-exported}")
+    private int maxExported;
+
+    private final Map<String, ExportedSnapshot> snapshots = new HashMap<>();
+
+    private class ExportedSnapshot extends Snapshot {
+        private final Snapshot snapshot;
+
+        private final DataSourceLease lease;
+
+        private final Connection connection;
+
+        private int leases;
+
+        private long lastAccessTime = System.nanoTime();
+
+        ExportedSnapshot(Snapshot snapshot, DataSourceLease lease, Connection connection) {
+            super(snapshot.getId());
+            this.snapshot = snapshot;
+            this.lease = lease;
+            this.connection = connection;
+        }
+
+        @Override
+        public String getParamName() {
+            return snapshot.getParamName();
+        }
+
+        @Override
+        public Lease join(Connection connection) throws SQLException {
+            synchronized (snapshots) {
+                leases++;
+                lastAccessTime = System.nanoTime();
+            }
+            try {
+                snapshot.join(connection).close();
+            } catch (SQLException | RuntimeException e) {
+                leave();
+                throw e;
+            }
+            return this::leave;
+        }
+
+        private void leave() {
+            synchronized (snapshots) {
+                leases--;
+                lastAccessTime = System.nanoTime();
+            }
+        }
+
+        private void close() {
+            logger.info("Releasing snapshot [{}] of [{}]", getId(), lease.getSourceName());
+            try {
+                connection.rollback();
+                connection.close();
+            } catch (SQLException e) {
+                logger.warn("Failed to close snapshot connection", e);
+            } finally {
+                lease.close();
+            }
+        }
+    }
+
+    /**
+     * Takes a snapshot of the source database given by the url, user and password params.
+     *
+     * @throws UnsupportedOperationException if the source supports neither exported
+     * snapshots nor historical reads
+     * @throws SourceBusyException if the max number of snapshots are exported
+     */
+    public Snapshot export(Map<String, String> allParams) {
+        final DataSourceLease lease = dataSourceFactory.hold(allParams);
+        final String version = lease.getDatabaseVersion();
+        final boolean cockroach = version.startsWith("CockroachDB");
+        if (!cockroach && !version.startsWith("PostgreSQL")) {
+            lease.close();
+            throw new UnsupportedOperationException("Snapshots are not supported by source: " + version);
+        }
+
+        if (cockroach) {
+            try (DataSourceLease l = lease;
+                 Connection connection = l.getDataSource().getConnection()) {
+                return Snapshot.asOfSystemTime(
+                        queryForString(connection, "select cluster_logical_timestamp()::string"));
+            } catch (SQLException e) {
+                throw new DataAccessResourceFailureException("Failed to take snapshot", e);
+            }
+        }
+
+        Connection connection = null;
+        try {
+            connection = lease.getDataSource().getConnection();
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            final ExportedSnapshot snapshot = new ExportedSnapshot(
+                    Snapshot.exported(queryForString(connection, "select pg_export_snapshot()")), lease, connection);
+            synchronized (snapshots) {
+                if (snapshots.size() >= maxExported) {
+                    throw new SourceBusyException("All " + maxExported + " exported snapshots are held, "
+                            + "release one with a DELETE on its snapshot link");
+                }
+                snapshots.put(snapshot.getId(), snapshot);
+            }
+            logger.info("Exported snapshot [{}] of [{}]", snapshot.getId(), lease.getSourceName());
+            return snapshot;
+        } catch (SQLException | RuntimeException e) {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            lease.close();
+            if (e instanceof SQLException) {
+                throw new DataAccessResourceFailureException("Failed to export snapshot", e);
+            }
+            throw (RuntimeException) e;
+        }
+    }
+
+    private static String queryForString(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            resultSet.next();
+            return resultSet.getString(1);
+        }
+    }
+
+    /**
+     * @return an exported snapshot still held, or null if released or never exported
+     */
+    public Snapshot get(String snapshotId) {
+        synchronized (snapshots) {
+            ExportedSnapshot snapshot = snapshots.get(snapshotId);
+            if (snapshot != null) {
+                snapshot.lastAccessTime = System.nanoTime();
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Releases an exported snapshot. Copies already reading from it are not affected.
+     *
+     * @return true if the snapshot was held
+     */
+    public boolean release(String snapshotId) {
+        final ExportedSnapshot snapshot;
+        synchronized (snapshots) {
+            snapshot = snapshots.remove(snapshotId);
+        }
+        if (snapshot == null) {
+            return false;
+        }
+        snapshot.close();
+        return true;
+    }
+
+    @Scheduled(fixedDelayString = "${pipe.datasource.eviction-interval}")
+    public void releaseIdle() {
+        final long now = System.nanoTime();
+        final List<ExportedSnapshot> released = new ArrayList<>();
+        synchronized (snapshots) {
+            Iterator<ExportedSnapshot> it = snapshots.values().iterator();
+            while (it.hasNext()) {
+                ExportedSnapshot snapshot = it.next();
+                if (snapshot.leases == 0 && now - snapshot.lastAccessTime > idleTimeout.toNanos()) {
+                    it.remove();
+                    released.add(snapshot);
+                }
+            }
+        }
+        released.forEach(ExportedSnapshot::close);
+    }
+
+    @PreDestroy
+    public void releaseAll() {
+        final List<ExportedSnapshot> released;
+        synchronized (snapshots) {
+            released = new ArrayList<>(snapshots.values());
+            snapshots.clear();
+        }
+        released.forEach(ExportedSnapshot::close);
+    }
+}
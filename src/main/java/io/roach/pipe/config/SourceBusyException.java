@@ -0,0 +1,10 @@
+package io.roach.pipe.config;
+
+/**
+ * Thrown when a source has too few unreserved connections to admit another copy.
+ */
+public class SourceBusyException extends RuntimeException {
+    public SourceBusyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,47 @@
+package io.roach.pipe.config;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual thread executors through reflection, since the build targets Java 8.
+ */
+abstract class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return true if the JDK no longer pins carrier threads in synchronized blocks
+     * (JDK 24+), which JDBC drivers use around blocking I/O
+     */
+    static boolean isPinningFree() {
+        String version = System.getProperty("java.specification.version", "1.8");
+        return !version.startsWith("1.") && Integer.parseInt(version) >= 24;
+    }
+
+    /**
+     * @return an executor starting a new virtual thread per task, or null if not
+     * supported by the JDK
+     */
+    static ExecutorService newThreadPerTaskExecutor(String threadNamePrefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class)
+                    .invoke(builder, threadNamePrefix, 0L);
+            ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, threadFactory);
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            // Preview feature on JDK 19 and 20
+            if (e.getCause() instanceof UnsupportedOperationException) {
+                return null;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package io.roach.pipe.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.Encoder;
+import org.springframework.util.Assert;
+
+/**
+ * Avro Object Container File (OCF) output writer.
+ * <p>
+ * The record schema is derived from the result set metadata with every field as a
+ * nullable union. Numeric, boolean and binary columns map to the corresponding Avro
+ * primitive types, everything else is written as string in the driver's text form.
+ * Rows are encoded straight from the result set getters without intermediate records.
+ * <p>
+ * https://avro.apache.org/docs/current/spec.html#Object+Container+Files
+ */
+public class AvroOutput implements RowWriter<ResultSet>, Closeable {
+    private static final String NAMESPACE = "io.roach.pipe";
+
+    @FunctionalInterface
+    private interface FieldWriter {
+        void write(ResultSet rs, int column, Encoder out) throws SQLException, IOException;
+    }
+
+    public static boolean isSupportedCodec(String codec) {
+        try {
+            CodecFactory.fromString(codec);
+            return true;
+        } catch (AvroRuntimeException e) {
+            return false;
+        }
+    }
+
+    private final OutputStream outputStream;
+
+    private final DataFileWriter<ResultSet> dataFileWriter;
+
+    private String recordName = "row";
+
+    private FieldWriter[] fieldWriters;
+
+    private boolean created;
+
+    public AvroOutput(OutputStream outputStream) {
+        Assert.notNull(outputStream, "outputStream is null");
+        this.outputStream = outputStream;
+        this.dataFileWriter = new DataFileWriter<>(new ResultSetDatumWriter());
+        this.dataFileWriter.setCodec(CodecFactory.deflateCodec(CodecFactory.DEFAULT_DEFLATE_LEVEL));
+    }
+
+    /**
+     * @param codec codec name such as null, deflate or deflate-level (1-9)
+     */
+    public AvroOutput setCodec(String codec) {
+        this.dataFileWriter.setCodec(CodecFactory.fromString(codec));
+        return this;
+    }
+
+    public AvroOutput setRecordName(String recordName) {
+        this.recordName = toAvroName(recordName);
+        return this;
+    }
+
+    @Override
+    public void begin(ResultSet rs) throws IOException, SQLException {
+        if (!created) {
+            ResultSetMetaData metaData = rs.getMetaData();
+            Schema schema = compile(metaData);
+            dataFileWriter.create(schema, outputStream);
+            created = true;
+        }
+    }
+
+    @Override
+    public void write(ResultSet rs, ResultSet item) throws IOException, SQLException {
+        begin(rs);
+        try {
+            dataFileWriter.append(rs);
+        } catch (DataFileWriter.AppendWriteException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException && cause.getCause() instanceof SQLException) {
+                throw (SQLException) cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw e;
+        }
+    }
+
+    private Schema compile(ResultSetMetaData metaData) throws SQLException {
+        SchemaBuilder.FieldAssembler<Schema> fields = SchemaBuilder.record(recordName).namespace(NAMESPACE).fields();
+        Set<String> names = new HashSet<>();
+
+        fieldWriters = new FieldWriter[metaData.getColumnCount()];
+
+        for (int i = 0; i < fieldWriters.length; i++) {
+            String name = toAvroName(metaData.getColumnLabel(i + 1));
+            while (!names.add(name)) {
+                name = name + "_";
+            }
+
+            int type = metaData.getColumnType(i + 1);
+            // PostgreSQL reports both bool and bit(n) as BIT, bit strings are written as string
+            if (type == Types.BIT) {
+                final String typeName = String.valueOf(metaData.getColumnTypeName(i + 1)).toLowerCase();
+                if (!"bool".equals(typeName) && !"boolean".equals(typeName)) {
+                    type = Types.VARCHAR;
+                }
+            }
+
+            switch (type) {
+                case Types.BIT:
+                case Types.BOOLEAN:
+                    fields.name(name).type().optional().booleanType();
+                    fieldWriters[i] = (rs, column, out) -> {
+                        boolean value = rs.getBoolean(column);
+                        if (writeIndex(rs, out)) {
+                            out.writeBoolean(value);
+                        }
+                    };
+                    break;
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                    fields.name(name).type().optional().intType();
+                    fieldWriters[i] = (rs, column, out) -> {
+                        int value = rs.getInt(column);
+                        if (writeIndex(rs, out)) {
+                            out.writeInt(value);
+                        }
+                    };
+                    break;
+                case Types.BIGINT:
+                    fields.name(name).type().optional().longType();
+                    fieldWriters[i] = (rs, column, out) -> {
+                        long value = rs.getLong(column);
+                        if (writeIndex(rs, out)) {
+                            out.writeLong(value);
+                        }
+                    };
+                    break;
+                case Types.REAL:
+                    fields.name(name).type().optional().floatType();
+                    fieldWriters[i] = (rs, column, out) -> {
+                        float value = rs.getFloat(column);
+                        if (writeIndex(rs, out)) {
+                            out.writeFloat(value);
+                        }
+                    };
+                    break;
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    fields.name(name).type().optional().doubleType();
+                    fieldWriters[i] = (rs, column, out) -> {
+                        double value = rs.getDouble(column);
+                        if (writeIndex(rs, out)) {
+                            out.writeDouble(value);
+                        }
+                    };
+                    break;
+                case Types.BINARY:
+                case Types.VARBINARY:
+                case Types.LONGVARBINARY:
+                case Types.BLOB:
+                    fields.name(name).type().optional().bytesType();
+                    fieldWriters[i] = (rs, column, out) -> {
+                        byte[] value = rs.getBytes(column);
+                        if (writeIndex(rs, out)) {
+                            out.writeBytes(value);
+                        }
+                    };
+                    break;
+                default:
+                    fields.name(name).type().optional().stringType();
+                    fieldWriters[i] = (rs, column, out) -> {
+                        String value = rs.getString(column);
+                        if (writeIndex(rs, out)) {
+                            out.writeString(value);
+                        }
+                    };
+                    break;
+            }
+        }
+
+        return fields.endRecord();
+    }
+
+    /**
+     * Writes the union branch of an optional field, which is ["null", type].
+     *
+     * @return true if the value is not null and should be written
+     */
+    private static boolean writeIndex(ResultSet rs, Encoder out) throws SQLException, IOException {
+        if (rs.wasNull()) {
+            out.writeIndex(0);
+            out.writeNull();
+            return false;
+        }
+        out.writeIndex(1);
+        return true;
+    }
+
+    private static String toAvroName(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_'
+                    || (i > 0 && c >= '0' && c <= '9');
+            sb.append(valid ? c : '_');
+        }
+        return sb.length() > 0 ? sb.toString() : "_";
+    }
+
+    private class ResultSetDatumWriter implements DatumWriter<ResultSet> {
+        @Override
+        public void setSchema(Schema schema) {
+        }
+
+        @Override
+        public void write(ResultSet rs, Encoder out) throws IOException {
+            try {
+                for (int i = 0; i < fieldWriters.length; i++) {
+                    fieldWriters[i].write(rs, i + 1, out);
+                }
+            } catch (SQLException e) {
+                throw new IOException("Error reading column value", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (created) {
+            dataFileWriter.close();
+        } else {
+            outputStream.close();
+        }
+    }
+}
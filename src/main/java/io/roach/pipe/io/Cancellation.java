@@ -0,0 +1,73 @@
+package io.roach.pipe.io;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cancels the work of a copy from another thread, for when the client went away or the
+ * request timed out while the copy is blocked on the source. Readers register their
+ * running statements for as long as they run, and copies the resources to release
+ * early. Cancelling runs everything registered in reverse order of registration, and
+ * anything registered after that right away.
+ */
+public class Cancellation {
+    /**
+     * Request attribute holding the cancellation of the copy serving the request.
+     */
+    public static final String ATTRIBUTE = Cancellation.class.getName();
+
+    @FunctionalInterface
+    public interface Cancellable {
+        void cancel() throws Exception;
+    }
+
+    /**
+     * Unregisters on close. Waits for a cancel in progress, so that a statement isn't
+     * cancelled after its connection went back to the pool.
+     */
+    public interface Registration extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final List<Cancellable> cancellables = new ArrayList<>();
+
+    private boolean cancelled;
+
+    public synchronized Registration register(Cancellable cancellable) {
+        if (cancelled) {
+            cancel(cancellable);
+        } else {
+            cancellables.add(cancellable);
+        }
+        return () -> {
+            synchronized (Cancellation.this) {
+                cancellables.remove(cancellable);
+            }
+        };
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    public synchronized void cancel() {
+        cancelled = true;
+        for (int i = cancellables.size() - 1; i >= 0; i--) {
+            cancel(cancellables.remove(i));
+        }
+    }
+
+    private void cancel(Cancellable cancellable) {
+        try {
+            cancellable.cancel();
+        } catch (Exception e) {
+            logger.warn("Cancel failed", e);
+        }
+    }
+}
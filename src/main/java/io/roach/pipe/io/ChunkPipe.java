@@ -0,0 +1,188 @@
+package io.roach.pipe.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.util.Assert;
+
+/**
+ * Bounded ring of byte chunks decoupling a producer stage (fetching and encoding rows)
+ * from a consumer stage (writing to the network), so that source fetch latency and
+ * network latency overlap rather than add up.
+ * <p>
+ * The producer writes to the {@link #sink()} stream, which hands over full chunks and
+ * blocks when all chunks are in flight. The consumer drains chunks in order with
+ * {@link #drainTo(OutputStream)} and recycles them. The producer must end with either
+ * {@link #complete()} or {@link #fail(Throwable)}, and the consumer signals an aborted
+ * drain with {@link #cancel()} which fails any further producer writes.
+ */
+public class ChunkPipe {
+    private static final long POLL_MILLIS = 100;
+
+    private static class Chunk {
+        private final byte[] data;
+
+        private int length;
+
+        private Chunk(int size) {
+            this.data = new byte[size];
+        }
+    }
+
+    private static final Chunk COMPLETED = new Chunk(0);
+
+    private static final Chunk FAILED = new Chunk(0);
+
+    private final BlockingQueue<Chunk> freeChunks;
+
+    private final BlockingQueue<Chunk> filledChunks;
+
+    private final OutputStream sink = new SinkOutputStream();
+
+    private volatile boolean cancelled;
+
+    private volatile Throwable failure;
+
+    /**
+     * @param chunkSize size in bytes of each chunk
+     * @param chunkCount number of chunks in the ring, which bounds the memory footprint
+     */
+    public ChunkPipe(int chunkSize, int chunkCount) {
+        Assert.isTrue(chunkSize > 0, "chunkSize must be > 0");
+        Assert.isTrue(chunkCount > 0, "chunkCount must be > 0");
+        this.freeChunks = new ArrayBlockingQueue<>(chunkCount);
+        this.filledChunks = new ArrayBlockingQueue<>(chunkCount + 1);
+        for (int i = 0; i < chunkCount; i++) {
+            freeChunks.add(new Chunk(chunkSize));
+        }
+    }
+
+    public OutputStream sink() {
+        return sink;
+    }
+
+    public void complete() throws IOException {
+        sink.flush();
+        filledChunks.offer(COMPLETED);
+    }
+
+    public void fail(Throwable t) {
+        this.failure = t;
+        filledChunks.offer(FAILED);
+    }
+
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public void drainTo(OutputStream outputStream) throws IOException {
+        try {
+            for (; ; ) {
+                Chunk chunk = filledChunks.take();
+                if (chunk == COMPLETED) {
+                    outputStream.flush();
+                    return;
+                }
+                if (chunk == FAILED) {
+                    if (failure instanceof IOException) {
+                        throw (IOException) failure;
+                    }
+                    if (failure instanceof RuntimeException) {
+                        throw (RuntimeException) failure;
+                    }
+                    if (failure instanceof Error) {
+                        throw (Error) failure;
+                    }
+                    throw new IOException("Producer failed", failure);
+                }
+                outputStream.write(chunk.data, 0, chunk.length);
+                // A partial chunk was published by a producer flush
+                if (chunk.length < chunk.data.length) {
+                    outputStream.flush();
+                }
+                chunk.length = 0;
+                freeChunks.offer(chunk);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            throw new InterruptedIOException("Interrupted while draining pipe");
+        } catch (IOException | RuntimeException | Error e) {
+            cancel();
+            throw e;
+        }
+    }
+
+    private class SinkOutputStream extends OutputStream {
+        private Chunk current;
+
+        private Chunk acquire() throws IOException {
+            try {
+                Chunk chunk;
+                while ((chunk = freeChunks.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                    checkCancelled();
+                }
+                return chunk;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a free chunk");
+            }
+        }
+
+        private void publish() throws IOException {
+            checkCancelled();
+            filledChunks.offer(current);
+            current = null;
+        }
+
+        private void checkCancelled() throws IOException {
+            if (cancelled) {
+                throw new IOException("Pipe cancelled by consumer");
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (current == null) {
+                current = acquire();
+            }
+            current.data[current.length++] = (byte) b;
+            if (current.length == current.data.length) {
+                publish();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (current == null) {
+                    current = acquire();
+                }
+                int n = Math.min(len, current.data.length - current.length);
+                System.arraycopy(b, off, current.data, current.length, n);
+                current.length += n;
+                off += n;
+                len -= n;
+                if (current.length == current.data.length) {
+                    publish();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (current != null && current.length > 0) {
+                publish();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
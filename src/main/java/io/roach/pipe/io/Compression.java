@@ -0,0 +1,160 @@
+package io.roach.pipe.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdOutputStream;
+
+/**
+ * Streaming response compression, selected by name. Default levels favor throughput
+ * over ratio since bulk transfers are rarely CPU bound on the receiving end.
+ */
+public enum Compression {
+    GZIP("gzip", "application/gzip", ".gz", 1, Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION) {
+        @Override
+        protected OutputStream compressor(OutputStream outputStream, int level) throws IOException {
+            return new LeveledGZIPOutputStream(outputStream, level);
+        }
+    },
+    ZSTD("zstd", "application/zstd", ".zst", 3, 1, Zstd.maxCompressionLevel()) {
+        @Override
+        protected OutputStream compressor(OutputStream outputStream, int level) throws IOException {
+            return new ZstdOutputStream(outputStream, level);
+        }
+    };
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public static Compression fromName(String name) {
+        for (Compression compression : values()) {
+            if (compression.name.equalsIgnoreCase(name)) {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported compression: " + name);
+    }
+
+    private final String name;
+
+    private final String contentType;
+
+    private final String fileSuffix;
+
+    private final int defaultLevel;
+
+    private final int minLevel;
+
+    private final int maxLevel;
+
+    Compression(String name, String contentType, String fileSuffix, int defaultLevel, int minLevel, int maxLevel) {
+        this.name = name;
+        this.contentType = contentType;
+        this.fileSuffix = fileSuffix;
+        this.defaultLevel = defaultLevel;
+        this.minLevel = minLevel;
+        this.maxLevel = maxLevel;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getFileSuffix() {
+        return fileSuffix;
+    }
+
+    public int getDefaultLevel() {
+        return defaultLevel;
+    }
+
+    public boolean isValidLevel(int level) {
+        return level >= minLevel && level <= maxLevel;
+    }
+
+    /**
+     * @return a stream compressing into the given stream, which must be closed to
+     * write the trailing frame or discarded to release the compressor without it
+     */
+    public CompressedOutputStream wrap(OutputStream outputStream, int level) throws IOException {
+        DetachableOutputStream target = new DetachableOutputStream(outputStream);
+        return new CompressedOutputStream(compressor(target, level), target);
+    }
+
+    protected abstract OutputStream compressor(OutputStream outputStream, int level) throws IOException;
+
+    public static class CompressedOutputStream extends FilterOutputStream {
+        private final DetachableOutputStream target;
+
+        CompressedOutputStream(OutputStream compressor, DetachableOutputStream target) {
+            super(compressor);
+            this.target = target;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        /**
+         * Releases the native or off-heap state of the compressor without writing
+         * anything more, so that a failed copy isn't passed off as complete. The
+         * given stream is left open.
+         */
+        public void discard() throws IOException {
+            // Only the compressor can release its state, so it's closed into the void
+            target.detached = true;
+            out.close();
+        }
+    }
+
+    private static class DetachableOutputStream extends FilterOutputStream {
+        private boolean detached;
+
+        DetachableOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!detached) {
+                out.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!detached) {
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!detached) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!detached) {
+                out.close();
+            }
+        }
+    }
+
+    private static class LeveledGZIPOutputStream extends GZIPOutputStream {
+        LeveledGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(level);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package io.roach.pipe.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.LongTaskTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Throughput and latency meters of a single copy, tagged by source and table.
+ * <p>
+ * Readers report rows and the time spent blocked on the source in batches, and the
+ * response stream wrapped by {@link #meter(OutputStream)} reports bytes, the time spent
+ * blocked writing to the client and the time to first byte since this meter was created.
+ * The wrapped stream is also a channel, passing buffers on as is if the response stream
+ * is a channel too.
+ * All meters are shared by copies with the same tags and are safe for concurrent use by
+ * partitions of the same copy.
+ */
+public class CopyMeter {
+    public static final String PREFIX = "pipe.copy";
+
+    private final long createTime = System.nanoTime();
+
+    private final AtomicBoolean firstByte = new AtomicBoolean();
+
+    private final Counter rows;
+
+    private final Counter bytes;
+
+    private final Counter readBlocked;
+
+    private final Counter writeBlocked;
+
+    private final Counter errors;
+
+    private final Timer timeToFirstByte;
+
+    private final Timer duration;
+
+    private final LongTaskTimer active;
+
+    private LongTaskTimer.Sample activeSample;
+
+    public CopyMeter(MeterRegistry registry, String source, String table) {
+        Tags tags = Tags.of("source", source, "table", table);
+        this.rows = Counter.builder(PREFIX + ".rows")
+                .description("Rows read from source")
+                .baseUnit("rows")
+                .tags(tags)
+                .register(registry);
+        this.bytes = Counter.builder(PREFIX + ".bytes")
+                .description("Bytes written to client")
+                .baseUnit("bytes")
+                .tags(tags)
+                .register(registry);
+        this.readBlocked = Counter.builder(PREFIX + ".read.blocked")
+                .description("Time blocked reading from source")
+                .baseUnit("seconds")
+                .tags(tags)
+                .register(registry);
+        this.writeBlocked = Counter.builder(PREFIX + ".write.blocked")
+                .description("Time blocked writing to client")
+                .baseUnit("seconds")
+                .tags(tags)
+                .register(registry);
+        this.errors = Counter.builder(PREFIX + ".errors")
+                .description("Failed copies")
+                .tags(tags)
+                .register(registry);
+        this.timeToFirstByte = Timer.builder(PREFIX + ".ttfb")
+                .description("Time from request to first byte written to client")
+                .tags(tags)
+                .register(registry);
+        this.duration = Timer.builder(PREFIX)
+                .description("Completed copies")
+                .tags(tags)
+                .register(registry);
+        this.active = LongTaskTimer.builder(PREFIX + ".active")
+                .description("Active copies")
+                .tags(tags)
+                .register(registry);
+    }
+
+    public void start() {
+        this.activeSample = active.start();
+    }
+
+    public void stop() {
+        duration.record(activeSample.stop(), TimeUnit.NANOSECONDS);
+    }
+
+    public void recordError() {
+        errors.increment();
+    }
+
+    public void recordRead(long rowCount, long blockedNanos) {
+        rows.increment(rowCount);
+        readBlocked.increment(blockedNanos / 1e9);
+    }
+
+    public OutputStream meter(OutputStream outputStream) {
+        return new MeteredOutputStream(outputStream);
+    }
+
+    private class MeteredOutputStream extends FilterOutputStream implements WritableByteChannel {
+        private static final int COPY_SIZE = 64 * 1024;
+
+        MeteredOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = startWrite();
+            out.write(b, off, len);
+            endWrite(start, len);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            long start = startWrite();
+            int len = src.remaining();
+            if (out instanceof WritableByteChannel) {
+                while (src.hasRemaining()) {
+                    ((WritableByteChannel) out).write(src);
+                }
+            } else {
+                byte[] b = new byte[Math.min(len, COPY_SIZE)];
+                while (src.hasRemaining()) {
+                    int n = Math.min(b.length, src.remaining());
+                    src.get(b, 0, n);
+                    out.write(b, 0, n);
+                }
+            }
+            endWrite(start, len);
+            return len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long start = System.nanoTime();
+            out.flush();
+            writeBlocked.increment((System.nanoTime() - start) / 1e9);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !(out instanceof WritableByteChannel) || ((WritableByteChannel) out).isOpen();
+        }
+
+        private long startWrite() {
+            long start = System.nanoTime();
+            if (firstByte.compareAndSet(false, true)) {
+                timeToFirstByte.record(start - createTime, TimeUnit.NANOSECONDS);
+            }
+            return start;
+        }
+
+        private void endWrite(long start, int len) {
+            writeBlocked.increment((System.nanoTime() - start) / 1e9);
+            bytes.increment(len);
+        }
+    }
+}
@@ -1,48 +1,81 @@
 package io.roach.pipe.io;
 
 import java.io.Closeable;
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Types;
-import java.util.List;
-import java.util.Locale;
 
 import org.springframework.util.Assert;
 
 /**
  * CSV output formatter and writer.
  * <p>
+ * Fields are encoded in a single pass into a reusable char buffer that is
+ * handed to the underlying writer on row boundaries once it fills up, so
+ * a row is never split across two writes. The column writers are chosen
+ * once per result set from its metadata and read values through the typed
+ * getters, avoiding any per-row boxing or intermediate collections.
+ * <p>
  * https://en.wikipedia.org/wiki/Comma-separated_values
  */
-public class CsvOutput implements RowWriter<List<Object>>, Closeable {
-    private static final String ESCAPE_REGEX = ".*[,\"].*";
+public class CsvOutput implements RowWriter<ResultSet>, Closeable {
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final char[] LINE_SEPARATOR = System.lineSeparator().toCharArray();
+
+    private static final char[] HEX_PREFIX = {'\\', 'x'};
+
+    private static final char[] MIN_LONG = Long.toString(Long.MIN_VALUE).toCharArray();
+
+    @FunctionalInterface
+    private interface FieldWriter {
+        void write(ResultSet rs, int column) throws SQLException;
+    }
+
+    private final Writer writer;
+
+    private char[] buffer;
+
+    private int position;
 
-    private final PrintWriter writer;
+    private final int flushThreshold;
 
-    private String delimiter = ",";
+    private boolean rowWritten;
 
-    private String quoteChar = "\"";
+    private char[] delimiter = {','};
 
-    private String escapeChar = "\"\"";
+    private char[] quoteChar = {'"'};
+
+    private char[] escapeChar = {'"', '"'};
 
     private boolean printHeader = false;
 
     private boolean printQuotes = false;
 
-    public CsvOutput(PrintWriter writer) {
+    private FieldWriter[] fieldWriters;
+
+    public CsvOutput(Writer writer) {
+        this(writer, DEFAULT_BUFFER_SIZE);
+    }
+
+    public CsvOutput(Writer writer, int bufferSize) {
         Assert.notNull(writer, "writer is null");
+        Assert.isTrue(bufferSize > 0, "bufferSize must be > 0");
         this.writer = writer;
+        this.buffer = new char[bufferSize];
+        this.flushThreshold = bufferSize;
     }
 
     public CsvOutput setDelimiter(String delimiter) {
-        this.delimiter = delimiter;
+        this.delimiter = delimiter.toCharArray();
         return this;
     }
 
     public CsvOutput setQuoteChar(String quoteChar) {
-        this.quoteChar = quoteChar;
+        this.quoteChar = quoteChar.toCharArray();
         return this;
     }
 
@@ -52,7 +85,9 @@ public class CsvOutput implements RowWriter<List<Object>>, Closeable {
     }
 
     public CsvOutput setEscapeChar(String escapeChar) {
-        this.escapeChar = escapeChar;
+        // Resolve the replacement once with the same semantics as String.replaceAll
+        // (backslash and '$' group references) rather than for every field
+        this.escapeChar = "\"".replaceAll("\"", escapeChar).toCharArray();
         return this;
     }
 
@@ -62,79 +97,222 @@ public class CsvOutput implements RowWriter<List<Object>>, Closeable {
     }
 
     @Override
-    public void write(ResultSet rs, List<Object> items) throws SQLException {
-        if (printHeader) {
-            printHeader = false;
-            writeHeader(rs.getMetaData());
+    public void write(ResultSet rs, ResultSet item) throws SQLException, IOException {
+        if (fieldWriters == null) {
+            ResultSetMetaData metaData = rs.getMetaData();
+            if (printHeader) {
+                writeHeader(metaData);
+            }
+            fieldWriters = compile(metaData);
         }
 
-        boolean first = true;
-
-        ResultSetMetaData metaData = rs.getMetaData();
-
-        int row = 1;
-        for (Object item : items) {
-            if (!first) {
-                writer.write(delimiter);
-            } else {
-                first = false;
+        for (int i = 0; i < fieldWriters.length; i++) {
+            if (i > 0) {
+                append(delimiter);
             }
+            fieldWriters[i].write(rs, i + 1);
+        }
 
-            int type = metaData.getColumnType(row++);
-            switch (type) {
-                case Types.ARRAY:
+        endRow();
+    }
+
+    private FieldWriter[] compile(ResultSetMetaData metaData) throws SQLException {
+        FieldWriter[] writers = new FieldWriter[metaData.getColumnCount()];
+        for (int i = 0; i < writers.length; i++) {
+            switch (metaData.getColumnType(i + 1)) {
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
                 case Types.BIGINT:
-                case Types.VARCHAR:
+                    writers[i] = (rs, column) -> {
+                        long value = rs.getLong(column);
+                        if (!rs.wasNull()) {
+                            appendLong(value);
+                        }
+                    };
+                    break;
                 case Types.BINARY:
-                case Types.BIT:
-                case Types.BLOB:
-                case Types.STRUCT:
+                case Types.VARBINARY:
+                case Types.LONGVARBINARY:
+                    writers[i] = (rs, column) -> {
+                        byte[] value = rs.getBytes(column);
+                        if (value != null) {
+                            appendBytes(value);
+                        }
+                    };
+                    break;
+                case Types.CHAR:
+                case Types.VARCHAR:
+                case Types.LONGVARCHAR:
+                case Types.NCHAR:
+                case Types.NVARCHAR:
+                case Types.LONGNVARCHAR:
+                    writers[i] = (rs, column) -> {
+                        String value = rs.getString(column);
+                        if (value != null) {
+                            appendString(value);
+                        }
+                    };
+                    break;
+                default:
+                    writers[i] = (rs, column) -> {
+                        Object value = rs.getObject(column);
+                        if (value instanceof byte[]) {
+                            appendBytes((byte[]) value);
+                        } else if (value != null) {
+                            appendString(value.toString());
+                        }
+                    };
+                    break;
             }
+        }
+        return writers;
+    }
 
-            if (item instanceof byte[]) {
-                if (printQuotes) {
-                    writer.print(quoteChar);
-                }
-                writer.printf(Locale.US, "\\x%s", new String(Hex.encode((byte[]) item)));
-                if (printQuotes) {
-                    writer.print(quoteChar);
-                }
-            } else if (item != null) {
-                if (printQuotes) {
-                    writer.print(quoteChar);
-                }
-                String str = item.toString();
-                if (str.matches(ESCAPE_REGEX)) {
-                    writer.print(quoteChar);
-                }
-                writer.printf(Locale.getDefault(), str.replaceAll("\"", escapeChar));
-                if (str.matches(ESCAPE_REGEX)) {
-                    writer.print(quoteChar);
-                }
-                if (printQuotes) {
-                    writer.print(quoteChar);
-                }
-            } else {
-                writer.print("");
+    private void writeHeader(ResultSetMetaData metaData) throws SQLException, IOException {
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            if (i > 1) {
+                append(delimiter);
             }
+            String name = metaData.getColumnName(i);
+            ensureCapacity(name.length());
+            name.getChars(0, name.length(), buffer, position);
+            position += name.length();
         }
+        endRow();
+    }
 
-        writer.println();
+    private void appendBytes(byte[] bytes) {
+        ensureCapacity(bytes.length * 2 + HEX_PREFIX.length + quoteChar.length * 2);
+        if (printQuotes) {
+            appendUnchecked(quoteChar);
+        }
+        appendUnchecked(HEX_PREFIX);
+        position = Hex.encode(bytes, buffer, position);
+        if (printQuotes) {
+            appendUnchecked(quoteChar);
+        }
     }
 
-    private void writeHeader(ResultSetMetaData metaData) throws SQLException {
-        for (int i = 1; i <= metaData.getColumnCount(); i++) {
-            if (i > 1) {
-                writer.printf(delimiter);
+    private void appendLong(long value) {
+        ensureCapacity(MIN_LONG.length + quoteChar.length * 2);
+        if (printQuotes) {
+            appendUnchecked(quoteChar);
+        }
+        if (value == Long.MIN_VALUE) {
+            appendUnchecked(MIN_LONG);
+        } else {
+            if (value < 0) {
+                buffer[position++] = '-';
+                value = -value;
+            }
+            int digits = 1;
+            for (long v = value; v >= 10; v /= 10) {
+                digits++;
             }
-            writer.printf(metaData.getColumnName(i));
+            int pos = position + digits;
+            position = pos;
+            do {
+                buffer[--pos] = (char) ('0' + (value % 10));
+                value /= 10;
+            } while (value != 0);
+        }
+        if (printQuotes) {
+            appendUnchecked(quoteChar);
+        }
+    }
+
+    private void appendString(String str) {
+        final int len = str.length();
+        ensureCapacity(len * Math.max(1, escapeChar.length) + quoteChar.length * 4);
+
+        if (printQuotes) {
+            appendUnchecked(quoteChar);
+        }
+
+        final int start = position;
+        final char[] buf = buffer;
+        int pos = position;
+        boolean special = false;
+        boolean lineTerminator = false;
+
+        for (int i = 0; i < len; i++) {
+            char c = str.charAt(i);
+            if (c == '"') {
+                special = true;
+                for (char e : escapeChar) {
+                    buf[pos++] = e;
+                }
+                continue;
+            }
+            if (c == ',') {
+                special = true;
+            } else if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                lineTerminator = true;
+            }
+            buf[pos++] = c;
+        }
+
+        // Same rule as the former ".*[,\"].*" match, where '.' never spans a line terminator
+        if (special && !lineTerminator) {
+            final int q = quoteChar.length;
+            System.arraycopy(buf, start, buf, start + q, pos - start);
+            System.arraycopy(quoteChar, 0, buf, start, q);
+            pos += q;
+            System.arraycopy(quoteChar, 0, buf, pos, q);
+            pos += q;
+        }
+
+        position = pos;
+
+        if (printQuotes) {
+            appendUnchecked(quoteChar);
+        }
+    }
+
+    private void append(char[] chars) {
+        ensureCapacity(chars.length);
+        appendUnchecked(chars);
+    }
+
+    private void appendUnchecked(char[] chars) {
+        System.arraycopy(chars, 0, buffer, position, chars.length);
+        position += chars.length;
+    }
+
+    private void ensureCapacity(int extra) {
+        int required = position + extra;
+        if (required > buffer.length) {
+            char[] newBuffer = new char[Math.max(required, buffer.length * 2)];
+            System.arraycopy(buffer, 0, newBuffer, 0, position);
+            buffer = newBuffer;
+        }
+    }
+
+    private void endRow() throws IOException {
+        append(LINE_SEPARATOR);
+        // The first row is handed over at once so that the client sees output without
+        // waiting for a full buffer from a slow query
+        if (position >= flushThreshold || !rowWritten) {
+            rowWritten = true;
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            writer.write(buffer, 0, position);
+            position = 0;
         }
-        writer.println();
     }
 
     @Override
-    public void close() {
-        writer.close();
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+            writer.flush();
+        } finally {
+            writer.close();
+        }
     }
 }
-
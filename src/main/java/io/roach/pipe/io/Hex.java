@@ -18,4 +18,16 @@ public abstract class Hex {
 
         return result;
     }
+
+    /**
+     * Encodes into the target buffer at given offset and returns the offset past the last char.
+     */
+    public static int encode(byte[] bytes, char[] target, int offset) {
+        int j = offset;
+        for (byte b : bytes) {
+            target[j++] = HEX_CHARS[(240 & b) >>> 4];
+            target[j++] = HEX_CHARS[15 & b];
+        }
+        return j;
+    }
 }
@@ -0,0 +1,467 @@
+package io.roach.pipe.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.util.Assert;
+
+/**
+ * Writes rows to a target table in batches, on several target connections in parallel.
+ * <p>
+ * Each source reader writes through its own {@link #batcher()}, which collects rows into
+ * batches and hands full batches over a bounded queue to the writers, so that a slow target
+ * blocks the readers rather than rows pile up. A batch is written either as one multi-row
+ * {@code INSERT} or, for PostgreSQL wire compatible targets, as a binary {@code COPY FROM STDIN}
+ * encoded by {@link PgCopyOutput}. Both are atomic in auto-commit mode, so batches failing
+ * with a serialization error (SQL state 40001), as CockroachDB reports contention, are
+ * retried with exponential backoff. Any other error fails the push, which is then also
+ * cancelled through the cancellation, if any.
+ */
+public class JdbcBatchWriter implements Closeable {
+    public enum Method {
+        INSERT,
+        COPY
+    }
+
+    private static final String SERIALIZATION_FAILURE = "40001";
+
+    // Bind parameters per statement supported by the PostgreSQL driver
+    private static final int MAX_PARAMETERS = 32767;
+
+    private static final long POLL_MILLIS = 100;
+
+    private static final long MIN_BACKOFF_MILLIS = 10;
+
+    private static final long MAX_BACKOFF_MILLIS = 5_000;
+
+    private static class Batch {
+        private final int size;
+
+        private final Object[][] rows;
+
+        private final byte[] copyData;
+
+        private Batch(int size, Object[][] rows, byte[] copyData) {
+            this.size = size;
+            this.rows = rows;
+            this.copyData = copyData;
+        }
+    }
+
+    private static final Batch END = new Batch(0, null, null);
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final AtomicLong rowsRead = new AtomicLong();
+
+    private final AtomicLong rowsWritten = new AtomicLong();
+
+    private final AtomicLong retries = new AtomicLong();
+
+    private final List<Future<?>> futures = new ArrayList<>();
+
+    private DataSource dataSource;
+
+    private AsyncTaskExecutor executor;
+
+    private String table;
+
+    private Method method = Method.INSERT;
+
+    private int batchSize = 1000;
+
+    private int writers = 1;
+
+    private int maxRetries = 10;
+
+    private Cancellation cancellation;
+
+    private BlockingQueue<Batch> queue;
+
+    private Cancellation.Registration registration;
+
+    private int columnCount;
+
+    private List<String> columnNames;
+
+    private int effectiveBatchSize;
+
+    private volatile Throwable failure;
+
+    private boolean closed;
+
+    public JdbcBatchWriter setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+        return this;
+    }
+
+    /**
+     * @param executor runs the writers, one task per writer
+     */
+    public JdbcBatchWriter setExecutor(AsyncTaskExecutor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public JdbcBatchWriter setTable(String table) {
+        this.table = table;
+        return this;
+    }
+
+    public JdbcBatchWriter setMethod(Method method) {
+        this.method = method;
+        return this;
+    }
+
+    /**
+     * @param batchSize rows per batch, lowered for INSERT if the batch would have more bind
+     * parameters than the driver supports
+     */
+    public JdbcBatchWriter setBatchSize(int batchSize) {
+        Assert.isTrue(batchSize > 0, "batchSize must be > 0");
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @param writers number of writers, each writing on a connection of its own
+     */
+    public JdbcBatchWriter setWriters(int writers) {
+        Assert.isTrue(writers > 0, "writers must be > 0");
+        this.writers = writers;
+        return this;
+    }
+
+    /**
+     * @param maxRetries max number of retries of a batch failing with a serialization error
+     */
+    public JdbcBatchWriter setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    /**
+     * @param cancellation cancelled when the push fails, and which fails the push when cancelled
+     */
+    public JdbcBatchWriter setCancellation(Cancellation cancellation) {
+        this.cancellation = cancellation;
+        return this;
+    }
+
+    /**
+     * @return rows read into batches, written or not
+     */
+    public long getRowsRead() {
+        return rowsRead.get();
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * @return the first error of the push, or null
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return a row writer batching the rows of one reader, not safe for concurrent use
+     */
+    public Batcher batcher() {
+        return new Batcher();
+    }
+
+    // Derives the target columns from the first reader and starts the writers
+    private synchronized void start(ResultSetMetaData metaData) throws SQLException {
+        if (queue != null) {
+            return;
+        }
+        columnCount = metaData.getColumnCount();
+        columnNames = new ArrayList<>();
+        for (int i = 1; i <= columnCount; i++) {
+            columnNames.add(metaData.getColumnLabel(i));
+        }
+
+        effectiveBatchSize = batchSize;
+        if (method == Method.INSERT && (long) batchSize * columnCount > MAX_PARAMETERS) {
+            effectiveBatchSize = Math.max(1, MAX_PARAMETERS / columnCount);
+            logger.info("Lowered batch size of [{}] to {} rows of {} columns",
+                    table, effectiveBatchSize, columnCount);
+        }
+
+        queue = new ArrayBlockingQueue<>(writers * 2);
+        if (cancellation != null) {
+            registration = cancellation.register(() -> abort(new IOException("Push cancelled")));
+        }
+        for (int i = 0; i < writers; i++) {
+            futures.add(executor.submit(() -> {
+                try {
+                    writeBatches();
+                } catch (Throwable e) {
+                    fail(e);
+                }
+            }));
+        }
+    }
+
+    public class Batcher implements RowWriter<ResultSet> {
+        private Object[][] rows;
+
+        private ByteArrayOutputStream copyBuffer;
+
+        private PgCopyOutput copyOutput;
+
+        private int size;
+
+        private Batcher() {
+        }
+
+        @Override
+        public void begin(ResultSet rs) throws IOException, SQLException {
+            start(rs.getMetaData());
+        }
+
+        @Override
+        public void write(ResultSet rs, ResultSet item) throws IOException, SQLException {
+            if (method == Method.COPY) {
+                if (copyOutput == null) {
+                    copyBuffer = new ByteArrayOutputStream();
+                    copyOutput = new PgCopyOutput(copyBuffer);
+                    copyOutput.begin(rs);
+                }
+                copyOutput.write(rs, item);
+            } else {
+                if (rows == null) {
+                    rows = new Object[effectiveBatchSize][];
+                }
+                Object[] row = new Object[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    row[i] = rs.getObject(i + 1);
+                }
+                rows[size] = row;
+            }
+            if (++size == effectiveBatchSize) {
+                flush();
+            }
+        }
+
+        /**
+         * Hands over the last partial batch, once the reader completed.
+         */
+        public void flush() throws IOException {
+            if (size == 0) {
+                return;
+            }
+            final Batch batch;
+            if (method == Method.COPY) {
+                copyOutput.end();
+                copyOutput.close();
+                batch = new Batch(size, null, copyBuffer.toByteArray());
+                copyOutput = null;
+                copyBuffer = null;
+            } else {
+                batch = new Batch(size, rows, null);
+                rows = null;
+            }
+            rowsRead.addAndGet(size);
+            size = 0;
+            put(batch);
+        }
+    }
+
+    private void put(Batch batch) throws IOException {
+        try {
+            while (!queue.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+            checkFailure();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a writer");
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Push failed", failure);
+        }
+    }
+
+    private void writeBatches() throws SQLException, InterruptedException {
+        try (Connection connection = dataSource.getConnection();
+             Cancellation.Registration registration = register(connection)) {
+            connection.setAutoCommit(true);
+            final String columns = quoteColumns(connection);
+            for (; ; ) {
+                Batch batch = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (failure != null || batch == END) {
+                    return;
+                }
+                if (batch != null) {
+                    writeBatch(connection, columns, batch);
+                }
+            }
+        }
+    }
+
+    // Quoted as source column names may be reserved words or mixed case on the target
+    private String quoteColumns(Connection connection) throws SQLException {
+        final String quote = connection.getMetaData().getIdentifierQuoteString().trim();
+        final List<String> quoted = new ArrayList<>();
+        for (String name : columnNames) {
+            quoted.add(quote.isEmpty() ? name : quote + name.replace(quote, quote + quote) + quote);
+        }
+        return String.join(", ", quoted);
+    }
+
+    // Aborted rather than returned to the pool, where the cancelled statement could still be running
+    private Cancellation.Registration register(Connection connection) {
+        if (cancellation == null) {
+            return null;
+        }
+        return cancellation.register(() -> connection.abort(Runnable::run));
+    }
+
+    private void writeBatch(Connection connection, String columns, Batch batch)
+            throws SQLException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                if (method == Method.COPY) {
+                    copy(connection, columns, batch);
+                } else {
+                    insert(connection, columns, batch);
+                }
+                rowsWritten.addAndGet(batch.size);
+                return;
+            } catch (SQLException e) {
+                if (!SERIALIZATION_FAILURE.equals(e.getSQLState()) || attempt > maxRetries || failure != null) {
+                    throw e;
+                }
+                long backoffMillis = Math.min(MAX_BACKOFF_MILLIS, MIN_BACKOFF_MILLIS << Math.min(attempt, 20));
+                backoffMillis = ThreadLocalRandom.current().nextLong(backoffMillis / 2, backoffMillis + 1);
+                retries.incrementAndGet();
+                logger.debug("Retrying batch of {} rows into [{}] in {} ms after serialization error: {}",
+                        batch.size, table, backoffMillis, e.getMessage());
+                TimeUnit.MILLISECONDS.sleep(backoffMillis);
+            }
+        }
+    }
+
+    private void insert(Connection connection, String columns, Batch batch) throws SQLException {
+        final StringBuilder sql = new StringBuilder("insert into ")
+                .append(table)
+                .append(" (")
+                .append(columns)
+                .append(") values ");
+        for (int r = 0; r < batch.size; r++) {
+            sql.append(r > 0 ? ",(" : "(");
+            for (int c = 0; c < columnCount; c++) {
+                sql.append(c > 0 ? ",?" : "?");
+            }
+            sql.append(')');
+        }
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql.toString())) {
+            int parameterIndex = 1;
+            for (int r = 0; r < batch.size; r++) {
+                for (Object value : batch.rows[r]) {
+                    preparedStatement.setObject(parameterIndex++, value);
+                }
+            }
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    private void copy(Connection connection, String columns, Batch batch) throws SQLException {
+        try {
+            connection.unwrap(PGConnection.class).getCopyAPI().copyIn(
+                    "COPY " + table + " (" + columns + ") FROM STDIN WITH BINARY",
+                    new ByteArrayInputStream(batch.copyData));
+        } catch (IOException e) {
+            throw new SQLException("I/O error copying batch", e);
+        }
+    }
+
+    private void fail(Throwable e) {
+        if (abort(e) && cancellation != null) {
+            cancellation.cancel();
+        }
+    }
+
+    // Returns true if this is the first error
+    private boolean abort(Throwable e) {
+        synchronized (this) {
+            if (failure != null) {
+                return false;
+            }
+            failure = e;
+        }
+        logger.warn("Push into [{}] failed: {}", table, e.toString());
+        return true;
+    }
+
+    /**
+     * Waits for all batches handed over to be written, or for the writers to stop if the
+     * push failed.
+     *
+     * @throws IOException if the push failed, with the first error as cause
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (queue == null) {
+            return;
+        }
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                put(END);
+            }
+        } finally {
+            try {
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(future -> future.cancel(true));
+            } catch (ExecutionException e) {
+                fail(e.getCause());
+            }
+            if (registration != null) {
+                registration.close();
+            }
+        }
+        checkFailure();
+    }
+}
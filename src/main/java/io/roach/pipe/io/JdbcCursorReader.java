@@ -23,12 +23,16 @@ import org.springframework.lang.Nullable;
 public class JdbcCursorReader {
     private static final int UNDEFINED = -1;
 
+    private static final int METER_BATCH_SIZE = 1024;
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private DataSource dataSource;
 
     private String query;
 
+    private Object[] parameters = {};
+
     private int fetchSize = UNDEFINED;
 
     private int rowOffset = 0;
@@ -39,8 +43,16 @@ public class JdbcCursorReader {
 
     private boolean ignoreWarnings = true;
 
+    private JdbcDialect dialect = JdbcDialect.GENERIC;
+
     private SQLExceptionTranslator exceptionTranslator;
 
+    private CopyMeter meter;
+
+    private Cancellation cancellation;
+
+    private Snapshot snapshot;
+
     public JdbcCursorReader() {
     }
 
@@ -54,6 +66,11 @@ public class JdbcCursorReader {
         return this;
     }
 
+    public JdbcCursorReader setParameters(Object... parameters) {
+        this.parameters = parameters;
+        return this;
+    }
+
     public JdbcCursorReader setFetchSize(int fetchSize) {
         this.fetchSize = fetchSize;
         return this;
@@ -79,12 +96,42 @@ public class JdbcCursorReader {
         return this;
     }
 
+    public JdbcCursorReader setDialect(JdbcDialect dialect) {
+        this.dialect = dialect;
+        return this;
+    }
+
+    public JdbcCursorReader setMeter(CopyMeter meter) {
+        this.meter = meter;
+        return this;
+    }
+
+    /**
+     * @param cancellation cancels the running statement, for example when the client went away
+     */
+    public JdbcCursorReader setCancellation(Cancellation cancellation) {
+        this.cancellation = cancellation;
+        return this;
+    }
+
+    /**
+     * @param snapshot snapshot to read from, for a consistent view across readers
+     */
+    public JdbcCursorReader setSnapshot(Snapshot snapshot) {
+        this.snapshot = snapshot;
+        return this;
+    }
+
     public JdbcCursorReader setExceptionTranslator(
             SQLExceptionTranslator exceptionTranslator) {
         this.exceptionTranslator = exceptionTranslator;
         return this;
     }
 
+    public void read(RowWriter<ResultSet> writer) {
+        read((rs, rowNum) -> rs, writer);
+    }
+
     @Nullable
     public <T> void read(RowMapper<T> rowMapper, RowWriter<T> writer) {
         if (maxRows != UNDEFINED && rowOffset >= maxRows) {
@@ -95,46 +142,83 @@ public class JdbcCursorReader {
             this.exceptionTranslator = new SQLErrorCodeSQLExceptionTranslator(dataSource);
         }
 
+        long rows = 0;
+        long blockedNanos = 0;
+        long readTime = System.nanoTime();
+
         try (Connection connection = openConnection();
+             Snapshot.Lease snapshotLease = snapshot != null ? snapshot.join(connection) : null;
              PreparedStatement preparedStatement = openCursor(connection);
+             Cancellation.Registration registration = register(connection, preparedStatement);
              ResultSet resultSet = preparedStatement.executeQuery()) {
 
             handleWarnings(preparedStatement);
 
+            writer.begin(resultSet);
+
             if (rowOffset > 0) {
                 skipToRow(resultSet, rowOffset);
             }
 
             while (resultSet.next()) {
+                blockedNanos += System.nanoTime() - readTime;
                 rowOffset++;
                 T item = rowMapper.mapRow(resultSet, this.rowOffset);
-                if (this.rowOffset != resultSet.getRow()) {
-                    throw new IllegalStateException("Unexpected cursor position");
-                }
                 writer.write(resultSet, item);
+
+                if (meter != null && ++rows == METER_BATCH_SIZE) {
+                    meter.recordRead(rows, blockedNanos);
+                    rows = 0;
+                    blockedNanos = 0;
+                }
+                readTime = System.nanoTime();
             }
+            blockedNanos += System.nanoTime() - readTime;
 
-            DataSourceUtils.releaseConnection(connection, dataSource);
+            connection.commit();
         } catch (SQLException ex) {
             throw exceptionTranslator.translate("Executing query", this.query, ex);
         } catch (IOException ex) {
             throw new DataAccessResourceFailureException("I/O error", ex);
+        } finally {
+            if (meter != null) {
+                meter.recordRead(rows, blockedNanos);
+            }
         }
     }
 
     private Connection openConnection() throws SQLException {
         Connection connection = DataSourceUtils.getConnection(dataSource);
-        connection.setAutoCommit(true);
+        // A forward-only cursor in an explicit transaction allows drivers to fetch
+        // from a server-side cursor in batches of fetch size rather than buffering it all
+        connection.setAutoCommit(false);
         connection.setReadOnly(true);
         return connection;
     }
 
+    // Unregistered before the connection is released, whether or not the read completed.
+    // The cancel request is handled asynchronously by the server, so the connection is
+    // aborted rather than reused, where it could cancel the statement of the next borrower.
+    private Cancellation.Registration register(Connection connection, Statement statement) {
+        if (cancellation == null) {
+            return null;
+        }
+        return cancellation.register(() -> {
+            statement.cancel();
+            connection.abort(Runnable::run);
+        });
+    }
+
     private PreparedStatement openCursor(Connection connection) throws SQLException {
         PreparedStatement preparedStatement = connection
-                .prepareStatement(query, ResultSet.TYPE_SCROLL_SENSITIVE, ResultSet.CONCUR_READ_ONLY,
-                        ResultSet.HOLD_CURSORS_OVER_COMMIT);
-        if (this.fetchSize != UNDEFINED) {
-            preparedStatement.setFetchSize(this.fetchSize);
+                .prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY,
+                        ResultSet.CLOSE_CURSORS_AT_COMMIT);
+        for (int i = 0; i < parameters.length; i++) {
+            preparedStatement.setObject(i + 1, parameters[i]);
+        }
+        int effectiveFetchSize = dialect.toFetchSize(this.fetchSize);
+        if (effectiveFetchSize != UNDEFINED) {
+            preparedStatement.setFetchSize(effectiveFetchSize);
             preparedStatement.setFetchDirection(ResultSet.FETCH_FORWARD);
         }
         if (this.maxRows != UNDEFINED) {
@@ -148,18 +232,13 @@ public class JdbcCursorReader {
 
     private void skipToRow(ResultSet resultSet, int row) {
         try {
-            resultSet.absolute(row);
-        } catch (SQLException e) {
-            logger.warn("The JDBC driver does not support ResultSet.absolute(), fast forwarding instead", e);
-            try {
-                int count = 0;
-                while (row != count && resultSet.next()) {
-                    count++;
-                }
-            } catch (SQLException se) {
-                throw exceptionTranslator
-                        .translate("Attempted to forward result to row number", this.query, se);
+            int count = 0;
+            while (row != count && resultSet.next()) {
+                count++;
             }
+        } catch (SQLException se) {
+            throw exceptionTranslator
+                    .translate("Attempted to forward result to row number", this.query, se);
         }
     }
 
@@ -0,0 +1,62 @@
+package io.roach.pipe.io;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Driver specific cursor tuning, selected by JDBC URL prefix.
+ */
+public enum JdbcDialect {
+    /**
+     * pgjdbc only uses server-side portals honoring the fetch size for forward-only
+     * cursors in a transaction, otherwise the entire result is buffered in heap.
+     */
+    POSTGRESQL("jdbc:postgresql:") {
+        @Override
+        public int toFetchSize(int fetchSize) {
+            return fetchSize > 0 ? fetchSize : DEFAULT_FETCH_SIZE;
+        }
+    },
+    /**
+     * Connector/J streams row by row with a fetch size of Integer.MIN_VALUE, unless
+     * cursor fetch is explicitly enabled in the URL.
+     */
+    MYSQL("jdbc:mysql:", "jdbc:mariadb:") {
+        @Override
+        public int toFetchSize(int fetchSize) {
+            return Integer.MIN_VALUE;
+        }
+    },
+    GENERIC() {
+        @Override
+        public int toFetchSize(int fetchSize) {
+            return fetchSize;
+        }
+    };
+
+    private static final int DEFAULT_FETCH_SIZE = 256;
+
+    public static JdbcDialect fromUrl(String url) {
+        for (JdbcDialect dialect : values()) {
+            if (dialect.prefixes.stream().anyMatch(url::startsWith)) {
+                if (dialect == MYSQL && url.contains("useCursorFetch=true")) {
+                    return GENERIC;
+                }
+                return dialect;
+            }
+        }
+        return GENERIC;
+    }
+
+    private final List<String> prefixes;
+
+    JdbcDialect(String... prefixes) {
+        this.prefixes = Arrays.asList(prefixes);
+    }
+
+    /**
+     * @param fetchSize requested fetch size, or -1 if undefined
+     * @return fetch size to set on the statement, or -1 to leave the driver default
+     */
+    public abstract int toFetchSize(int fetchSize);
+}
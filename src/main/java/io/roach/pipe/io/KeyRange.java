@@ -0,0 +1,119 @@
+package io.roach.pipe.io;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+/**
+ * A half-open range of integer keys [lowerBound, upperBound) where a missing
+ * bound means unbounded in that direction. Null keys sort first, so the range
+ * unbounded below also holds the rows where the key is null.
+ */
+public class KeyRange {
+    /**
+     * Splits [min, max] into given number of disjoint ranges of roughly equal width. The
+     * first and last ranges are open-ended so that the ranges together always cover the
+     * entire key space, including keys inserted outside [min, max] after the split.
+     */
+    public static List<KeyRange> split(long min, long max, int partitions) {
+        Assert.isTrue(partitions > 0, "partitions must be > 0");
+        Assert.isTrue(min <= max, "min must be <= max");
+
+        BigInteger lower = BigInteger.valueOf(min);
+        BigInteger span = BigInteger.valueOf(max).subtract(lower).add(BigInteger.ONE);
+        BigInteger n = BigInteger.valueOf(partitions);
+
+        List<KeyRange> ranges = new ArrayList<>(partitions);
+        Long previous = null;
+        for (int i = 1; i < partitions; i++) {
+            long bound = lower.add(span.multiply(BigInteger.valueOf(i)).divide(n)).longValue();
+            ranges.add(new KeyRange(previous, bound));
+            previous = bound;
+        }
+        ranges.add(new KeyRange(previous, null));
+        return ranges;
+    }
+
+    /**
+     * Splits at given number of points picked evenly from a sorted list of candidate
+     * bounds, such as an equi-depth histogram, yielding ranges with roughly the same
+     * number of keys. Duplicate split points are collapsed so fewer ranges may be returned.
+     */
+    public static List<KeyRange> split(List<Long> sortedBounds, int partitions) {
+        Assert.isTrue(partitions > 0, "partitions must be > 0");
+        Assert.notEmpty(sortedBounds, "sortedBounds is empty");
+
+        int last = sortedBounds.size() - 1;
+        List<KeyRange> ranges = new ArrayList<>(partitions);
+        Long previous = null;
+        for (int i = 1; i < partitions; i++) {
+            long bound = sortedBounds.get(Math.round((float) i * last / partitions));
+            if (previous == null || bound > previous) {
+                ranges.add(new KeyRange(previous, bound));
+                previous = bound;
+            }
+        }
+        ranges.add(new KeyRange(previous, null));
+        return ranges;
+    }
+
+    private final Long lowerBound;
+
+    private final Long upperBound;
+
+    public KeyRange(@Nullable Long lowerBound, @Nullable Long upperBound) {
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+    }
+
+    @Nullable
+    public Long getLowerBound() {
+        return lowerBound;
+    }
+
+    @Nullable
+    public Long getUpperBound() {
+        return upperBound;
+    }
+
+    public boolean isUnbounded() {
+        return lowerBound == null && upperBound == null;
+    }
+
+    /**
+     * @return SQL predicate with positional parameter markers, or an empty string if unbounded.
+     * The predicate of a range unbounded below matches null keys, which no other range does.
+     */
+    public String toPredicate(String column) {
+        if (lowerBound != null && upperBound != null) {
+            return column + " >= ? and " + column + " < ?";
+        }
+        if (lowerBound != null) {
+            return column + " >= ?";
+        }
+        if (upperBound != null) {
+            return "(" + column + " < ? or " + column + " is null)";
+        }
+        return "";
+    }
+
+    public Object[] toParameters() {
+        List<Object> params = new ArrayList<>(2);
+        if (lowerBound != null) {
+            params.add(lowerBound);
+        }
+        if (upperBound != null) {
+            params.add(upperBound);
+        }
+        return params.toArray();
+    }
+
+    @Override
+    public String toString() {
+        return "[" + (lowerBound != null ? lowerBound : "-inf") + ", "
+                + (upperBound != null ? upperBound : "+inf") + ")";
+    }
+}
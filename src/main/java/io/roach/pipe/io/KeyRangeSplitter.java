@@ -0,0 +1,82 @@
+package io.roach.pipe.io;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.Assert;
+
+/**
+ * Splits a table or query result into key ranges over an integer split column,
+ * using the min and max values of the column.
+ */
+public class KeyRangeSplitter {
+    private DataSource dataSource;
+
+    private String from;
+
+    private String splitColumn;
+
+    private Snapshot snapshot;
+
+    public KeyRangeSplitter setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+        return this;
+    }
+
+    /**
+     * @param from table name or parenthesized and aliased sub-query
+     */
+    public KeyRangeSplitter setFrom(String from) {
+        this.from = from;
+        return this;
+    }
+
+    public KeyRangeSplitter setSplitColumn(String splitColumn) {
+        this.splitColumn = splitColumn;
+        return this;
+    }
+
+    /**
+     * @param snapshot snapshot to read the min and max values from, so that splits made by
+     * separate requests line up
+     */
+    public KeyRangeSplitter setSnapshot(Snapshot snapshot) {
+        this.snapshot = snapshot;
+        return this;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the split column is not of an integer type
+     */
+    public List<KeyRange> split(int partitions) {
+        Assert.notNull(dataSource, "dataSource is null");
+        Assert.hasLength(from, "from is empty");
+        Assert.hasLength(splitColumn, "splitColumn is empty");
+
+        final String sql = "select min(" + splitColumn + "), max(" + splitColumn + ") from " + from;
+        long[] minMax = new JdbcTemplate(dataSource).execute((ConnectionCallback<long[]>) connection -> {
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+            try (Snapshot.Lease snapshotLease = snapshot != null ? snapshot.join(connection) : null;
+                 Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery(sql)) {
+                // Checked on the result rather than the table, so that queries can be split too
+                if (!TableInspector.isIntegerType(rs.getMetaData().getColumnType(1))) {
+                    throw new IllegalArgumentException("Split column [" + splitColumn
+                            + "] must be of an integer type, not " + rs.getMetaData().getColumnTypeName(1));
+                }
+                rs.next();
+                return new long[] {rs.getLong(1), rs.getLong(2)};
+            } finally {
+                connection.rollback();
+            }
+        });
+
+        return KeyRange.split(minMax[0], minMax[1], partitions);
+    }
+}
@@ -0,0 +1,157 @@
+package io.roach.pipe.io;
+
+import java.math.BigDecimal;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.Assert;
+
+/**
+ * Keyset (seek) position in a result ordered by one or more key columns. Resuming
+ * after a key is an index seek on the source rather than reading and discarding
+ * all preceding rows as with row offsets.
+ * <p>
+ * Key values are passed as text and bound as the types of the key columns, so that
+ * for example a text key of {@code 00123} is compared as text and a uuid key as uuid.
+ */
+public class Keyset {
+    /**
+     * @param keyColumns comma separated key column names
+     * @param afterKey comma separated key values to resume after, or null to start from the first key
+     */
+    public static Keyset parse(String keyColumns, String afterKey) {
+        List<String> columns = split(keyColumns);
+        List<String> values = new ArrayList<>();
+        if (afterKey != null) {
+            values.addAll(split(afterKey));
+            Assert.isTrue(values.size() == columns.size(),
+                    "Number of key values " + values.size() + " must match key columns " + columns.size());
+        }
+        return new Keyset(columns, values);
+    }
+
+    private static List<String> split(String csv) {
+        List<String> items = new ArrayList<>();
+        for (String item : csv.split(",")) {
+            items.add(item.trim());
+        }
+        return items;
+    }
+
+    private final List<String> columns;
+
+    private final List<String> values;
+
+    private Object[] parameters;
+
+    private String[] casts;
+
+    public Keyset(List<String> columns, List<String> values) {
+        Assert.notEmpty(columns, "columns is empty");
+        this.columns = Collections.unmodifiableList(columns);
+        this.values = Collections.unmodifiableList(values);
+        this.parameters = values.toArray();
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public boolean hasPosition() {
+        return !values.isEmpty();
+    }
+
+    /**
+     * Reads the types of the key columns from the metadata of an empty query and binds
+     * the key values as these types.
+     *
+     * @param from table name or parenthesized and aliased sub-query
+     */
+    public Keyset resolveTypes(DataSource dataSource, JdbcDialect dialect, String from) {
+        if (hasPosition()) {
+            new JdbcTemplate(dataSource).query("select " + toOrderBy() + " from " + from + " where 1 = 0",
+                    rs -> {
+                        resolveTypes(rs.getMetaData(), dialect);
+                        return null;
+                    });
+        }
+        return this;
+    }
+
+    /**
+     * @param metaData metadata with the key columns in key order
+     */
+    public Keyset resolveTypes(ResultSetMetaData metaData, JdbcDialect dialect) throws SQLException {
+        Assert.isTrue(metaData.getColumnCount() == columns.size(), "Key column count mismatch");
+        if (dialect == JdbcDialect.POSTGRESQL) {
+            // Cast on the server, which parses the values as it would any text input
+            casts = new String[columns.size()];
+            for (int i = 0; i < casts.length; i++) {
+                casts[i] = metaData.getColumnTypeName(i + 1);
+            }
+        } else {
+            // No portable cast syntax, numbers are converted and other values bound as text
+            parameters = new Object[columns.size()];
+            for (int i = 0; i < parameters.length; i++) {
+                parameters[i] = toValue(values.get(i), metaData.getColumnType(i + 1));
+            }
+        }
+        return this;
+    }
+
+    private static Object toValue(String value, int type) {
+        try {
+            switch (type) {
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                    return Long.parseLong(value);
+                case Types.NUMERIC:
+                case Types.DECIMAL:
+                    return new BigDecimal(value);
+                case Types.REAL:
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    return Double.parseDouble(value);
+                default:
+                    return value;
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Key value [" + value + "] is not a number");
+        }
+    }
+
+    /**
+     * @return SQL predicate with positional parameter markers, or an empty string if there is no position
+     */
+    public String toPredicate() {
+        if (!hasPosition()) {
+            return "";
+        }
+        String[] markers = new String[columns.size()];
+        for (int i = 0; i < markers.length; i++) {
+            markers[i] = casts != null ? "CAST(? AS " + casts[i] + ")" : "?";
+        }
+        if (columns.size() == 1) {
+            return columns.get(0) + " > " + markers[0];
+        }
+        return "(" + String.join(", ", columns) + ") > (" + String.join(", ", markers) + ")";
+    }
+
+    public String toOrderBy() {
+        return String.join(", ", columns);
+    }
+
+    public Object[] toParameters() {
+        return Arrays.copyOf(parameters, parameters.length);
+    }
+}
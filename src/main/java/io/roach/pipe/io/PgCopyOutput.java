@@ -0,0 +1,369 @@
+package io.roach.pipe.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+import org.springframework.util.Assert;
+
+/**
+ * PostgreSQL binary COPY output writer, for loading with {@code COPY table FROM STDIN WITH BINARY}
+ * into PostgreSQL or CockroachDB.
+ * <p>
+ * Values are encoded straight from the typed result set getters in the binary form of the
+ * column's PostgreSQL type, so numerics, timestamps, UUIDs and bytea are never formatted as
+ * text. Binary COPY is strict about types, the target columns must have the same types as
+ * the source columns. Types without a known binary form, such as arrays, intervals or network
+ * addresses, fail the copy and need to be copied as CSV instead.
+ * <p>
+ * https://www.postgresql.org/docs/current/sql-copy.html#id-1.9.3.55.9.4
+ */
+public class PgCopyOutput implements RowWriter<ResultSet>, Closeable {
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+
+    // Seconds from 1970-01-01 to the PostgreSQL epoch 2000-01-01
+    private static final long PG_EPOCH_SECONDS = 946_684_800L;
+
+    private static final long PG_EPOCH_DAYS = 10_957L;
+
+    private static final int NUMERIC_POS = 0x0000;
+
+    private static final int NUMERIC_NEG = 0x4000;
+
+    @FunctionalInterface
+    private interface FieldWriter {
+        void write(ResultSet rs, int column, DataOutputStream out) throws SQLException, IOException;
+    }
+
+    private final DataOutputStream out;
+
+    private FieldWriter[] fieldWriters;
+
+    private boolean closed;
+
+    public PgCopyOutput(OutputStream outputStream) {
+        Assert.notNull(outputStream, "outputStream is null");
+        this.out = new DataOutputStream(new BufferedOutputStream(outputStream, 64 * 1024));
+    }
+
+    @Override
+    public void begin(ResultSet rs) throws IOException, SQLException {
+        if (fieldWriters == null) {
+            fieldWriters = compile(rs.getMetaData());
+            writeHeader();
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        out.write(SIGNATURE);
+        out.writeInt(0); // flags
+        out.writeInt(0); // header extension length
+    }
+
+    @Override
+    public void write(ResultSet rs, ResultSet item) throws IOException, SQLException {
+        begin(rs);
+        out.writeShort(fieldWriters.length);
+        for (int i = 0; i < fieldWriters.length; i++) {
+            fieldWriters[i].write(rs, i + 1, out);
+        }
+    }
+
+    private FieldWriter[] compile(ResultSetMetaData metaData) throws SQLException {
+        FieldWriter[] writers = new FieldWriter[metaData.getColumnCount()];
+        for (int i = 0; i < writers.length; i++) {
+            final String typeName = String.valueOf(metaData.getColumnTypeName(i + 1)).toLowerCase();
+            switch (metaData.getColumnType(i + 1)) {
+                case Types.BIT:
+                    // PostgreSQL reports both bool and bit(n) as BIT
+                    if (!"bool".equals(typeName) && !"boolean".equals(typeName)) {
+                        throw unsupported(metaData, i + 1);
+                    }
+                    // falls through
+                case Types.BOOLEAN:
+                    writers[i] = (rs, column, out) -> {
+                        boolean value = rs.getBoolean(column);
+                        if (writeLength(rs, out, 1)) {
+                            out.writeBoolean(value);
+                        }
+                    };
+                    break;
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                    writers[i] = (rs, column, out) -> {
+                        short value = rs.getShort(column);
+                        if (writeLength(rs, out, 2)) {
+                            out.writeShort(value);
+                        }
+                    };
+                    break;
+                case Types.INTEGER:
+                    writers[i] = (rs, column, out) -> {
+                        int value = rs.getInt(column);
+                        if (writeLength(rs, out, 4)) {
+                            out.writeInt(value);
+                        }
+                    };
+                    break;
+                case Types.BIGINT:
+                    writers[i] = (rs, column, out) -> {
+                        long value = rs.getLong(column);
+                        if (writeLength(rs, out, 8)) {
+                            out.writeLong(value);
+                        }
+                    };
+                    break;
+                case Types.REAL:
+                    writers[i] = (rs, column, out) -> {
+                        float value = rs.getFloat(column);
+                        if (writeLength(rs, out, 4)) {
+                            out.writeFloat(value);
+                        }
+                    };
+                    break;
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    writers[i] = (rs, column, out) -> {
+                        double value = rs.getDouble(column);
+                        if (writeLength(rs, out, 8)) {
+                            out.writeDouble(value);
+                        }
+                    };
+                    break;
+                case Types.NUMERIC:
+                case Types.DECIMAL:
+                    writers[i] = (rs, column, out) -> writeNumeric(rs.getBigDecimal(column), out);
+                    break;
+                case Types.BINARY:
+                case Types.VARBINARY:
+                case Types.LONGVARBINARY:
+                case Types.BLOB:
+                    writers[i] = (rs, column, out) -> {
+                        byte[] value = rs.getBytes(column);
+                        if (writeLength(rs, out, value != null ? value.length : -1)) {
+                            out.write(value);
+                        }
+                    };
+                    break;
+                case Types.DATE:
+                    writers[i] = (rs, column, out) -> {
+                        LocalDate value = rs.getObject(column, LocalDate.class);
+                        if (writeLength(rs, out, 4)) {
+                            out.writeInt(value.equals(LocalDate.MAX) ? Integer.MAX_VALUE
+                                    : value.equals(LocalDate.MIN) ? Integer.MIN_VALUE
+                                    : (int) (value.toEpochDay() - PG_EPOCH_DAYS));
+                        }
+                    };
+                    break;
+                case Types.TIME:
+                    if (!"time".equals(typeName)) {
+                        throw unsupported(metaData, i + 1);
+                    }
+                    writers[i] = (rs, column, out) -> {
+                        LocalTime value = rs.getObject(column, LocalTime.class);
+                        if (writeLength(rs, out, 8)) {
+                            out.writeLong(value.toNanoOfDay() / 1000);
+                        }
+                    };
+                    break;
+                case Types.TIMESTAMP:
+                    if (!"timestamptz".equals(typeName)) {
+                        writers[i] = (rs, column, out) -> {
+                            LocalDateTime value = rs.getObject(column, LocalDateTime.class);
+                            if (writeLength(rs, out, 8)) {
+                                out.writeLong(value.equals(LocalDateTime.MAX) ? Long.MAX_VALUE
+                                        : value.equals(LocalDateTime.MIN) ? Long.MIN_VALUE
+                                        : toMicros(value.toEpochSecond(ZoneOffset.UTC), value.getNano()));
+                            }
+                        };
+                        break;
+                    }
+                    // timestamptz, falls through
+                case Types.TIMESTAMP_WITH_TIMEZONE:
+                    writers[i] = (rs, column, out) -> {
+                        OffsetDateTime value = rs.getObject(column, OffsetDateTime.class);
+                        if (writeLength(rs, out, 8)) {
+                            out.writeLong(value.equals(OffsetDateTime.MAX) ? Long.MAX_VALUE
+                                    : value.equals(OffsetDateTime.MIN) ? Long.MIN_VALUE
+                                    : toMicros(value.toEpochSecond(), value.getNano()));
+                        }
+                    };
+                    break;
+                case Types.CHAR:
+                case Types.VARCHAR:
+                case Types.LONGVARCHAR:
+                case Types.NCHAR:
+                case Types.NVARCHAR:
+                case Types.LONGNVARCHAR:
+                case Types.CLOB:
+                    writers[i] = (rs, column, out) -> writeText(rs.getString(column), out);
+                    break;
+                case Types.OTHER:
+                    if ("uuid".equals(typeName)) {
+                        writers[i] = (rs, column, out) -> {
+                            UUID value = rs.getObject(column, UUID.class);
+                            if (writeLength(rs, out, 16)) {
+                                out.writeLong(value.getMostSignificantBits());
+                                out.writeLong(value.getLeastSignificantBits());
+                            }
+                        };
+                        break;
+                    }
+                    if ("jsonb".equals(typeName)) {
+                        writers[i] = (rs, column, out) -> {
+                            String value = rs.getString(column);
+                            if (value == null) {
+                                out.writeInt(-1);
+                                return;
+                            }
+                            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                            out.writeInt(bytes.length + 1);
+                            out.writeByte(1); // jsonb format version
+                            out.write(bytes);
+                        };
+                        break;
+                    }
+                    if ("json".equals(typeName) || "xml".equals(typeName) || "citext".equals(typeName)) {
+                        writers[i] = (rs, column, out) -> writeText(rs.getString(column), out);
+                        break;
+                    }
+                    // falls through
+                default:
+                    throw unsupported(metaData, i + 1);
+            }
+        }
+        return writers;
+    }
+
+    private static SQLException unsupported(ResultSetMetaData metaData, int column) throws SQLException {
+        return new SQLFeatureNotSupportedException("Column [" + metaData.getColumnLabel(column)
+                + "] of type [" + metaData.getColumnTypeName(column) + "] is not supported by format [pgcopy]");
+    }
+
+    /**
+     * Writes the length of a field, or -1 if the value just read is null.
+     *
+     * @return true if the value is not null and should be written
+     */
+    private static boolean writeLength(ResultSet rs, DataOutputStream out, int length)
+            throws SQLException, IOException {
+        if (rs.wasNull()) {
+            out.writeInt(-1);
+            return false;
+        }
+        out.writeInt(length);
+        return true;
+    }
+
+    private static long toMicros(long epochSecond, int nano) {
+        return (epochSecond - PG_EPOCH_SECONDS) * 1_000_000L + nano / 1000;
+    }
+
+    private static void writeText(String value, DataOutputStream out) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes a numeric as base 10000 digits with the weight of the first digit, as
+     * PostgreSQL's numeric_send does.
+     */
+    private static void writeNumeric(BigDecimal value, DataOutputStream out) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final int sign = value.signum() < 0 ? NUMERIC_NEG : NUMERIC_POS;
+        BigDecimal abs = value.abs();
+        if (abs.scale() < 0) {
+            abs = abs.setScale(0);
+        }
+        final int dscale = abs.scale();
+
+        final String plain = abs.toPlainString();
+        final int point = plain.indexOf('.');
+        final String intPart = point < 0 ? plain : plain.substring(0, point);
+        final String fracPart = point < 0 ? "" : plain.substring(point + 1);
+
+        final int intGroups = (intPart.length() + 3) / 4;
+        final int fracGroups = (fracPart.length() + 3) / 4;
+        final short[] digits = new short[intGroups + fracGroups];
+        // Integer digits are grouped from the decimal point leftwards, fraction digits rightwards
+        final int intPad = intGroups * 4 - intPart.length();
+        for (int i = 0; i < intPart.length(); i++) {
+            int g = (i + intPad) / 4;
+            digits[g] = (short) (digits[g] * 10 + (intPart.charAt(i) - '0'));
+        }
+        for (int i = 0; i < fracGroups * 4; i++) {
+            int g = intGroups + i / 4;
+            digits[g] = (short) (digits[g] * 10 + (i < fracPart.length() ? fracPart.charAt(i) - '0' : 0));
+        }
+
+        int first = 0;
+        while (first < digits.length && digits[first] == 0) {
+            first++;
+        }
+        int last = digits.length;
+        while (last > first && digits[last - 1] == 0) {
+            last--;
+        }
+        final int ndigits = last - first;
+        final int weight = ndigits == 0 ? 0 : intGroups - 1 - first;
+
+        out.writeInt(8 + ndigits * 2);
+        out.writeShort(ndigits);
+        out.writeShort(weight);
+        out.writeShort(sign);
+        out.writeShort(dscale);
+        for (int i = first; i < last; i++) {
+            out.writeShort(digits[i]);
+        }
+    }
+
+    /**
+     * Writes the file trailer, once all rows are written. Not invoked if the read failed,
+     * so that a truncated stream fails to load rather than loads as complete.
+     */
+    public void end() throws IOException {
+        if (fieldWriters == null) {
+            throw new IllegalStateException("Not begun");
+        }
+        out.writeShort(-1);
+    }
+
+    /**
+     * Flushes the rows written so far and closes the stream, without the trailer.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+}
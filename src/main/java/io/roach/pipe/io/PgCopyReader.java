@@ -0,0 +1,295 @@
+package io.roach.pipe.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyOut;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
+import org.springframework.jdbc.support.SQLExceptionTranslator;
+import org.springframework.util.Assert;
+
+/**
+ * Reader using PostgreSQL's native COPY (query) TO STDOUT in CSV format, streaming
+ * the server encoded rows as-is without any per-column processing. Rows are
+ * buffered and written on row boundaries, same as {@link CsvOutput}.
+ * <p>
+ * Values are formatted by PostgreSQL's text output functions and quoted by its CSV
+ * rules, for example booleans as t/f and empty strings quoted to tell them from nulls.
+ * <p>
+ * https://www.postgresql.org/docs/current/sql-copy.html
+ */
+public class PgCopyReader {
+    private static final int UNDEFINED = -1;
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final int METER_BATCH_SIZE = 1024;
+
+    /**
+     * Replaces positional parameter markers with SQL literals since COPY doesn't take parameters.
+     * Only to be used on generated predicates where each '?' is a marker.
+     */
+    public static String inlineParameters(String predicate, Object[] parameters) {
+        StringBuilder sb = new StringBuilder();
+        int p = 0;
+        for (char c : predicate.toCharArray()) {
+            if (c == '?') {
+                Object value = parameters[p++];
+                if (value instanceof Number) {
+                    sb.append(value);
+                } else {
+                    sb.append('\'').append(value.toString().replace("'", "''")).append('\'');
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        Assert.isTrue(p == parameters.length, "Parameter count mismatch");
+        return sb.toString();
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private DataSource dataSource;
+
+    private String query;
+
+    private int rowOffset = 0;
+
+    private int maxRows = UNDEFINED;
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    private char delimiter = ',';
+
+    private char quoteChar = '"';
+
+    private char escapeChar = '"';
+
+    private boolean printHeader = false;
+
+    private boolean printQuotes = false;
+
+    private CopyMeter meter;
+
+    private Cancellation cancellation;
+
+    private Snapshot snapshot;
+
+    public PgCopyReader setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+        return this;
+    }
+
+    public PgCopyReader setQuery(String query) {
+        this.query = query;
+        return this;
+    }
+
+    public PgCopyReader setRowOffset(int rowOffset) {
+        this.rowOffset = rowOffset;
+        return this;
+    }
+
+    public PgCopyReader setMaxRows(int maxRows) {
+        this.maxRows = maxRows;
+        return this;
+    }
+
+    public PgCopyReader setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    public PgCopyReader setDelimiter(String delimiter) {
+        this.delimiter = toSingleChar("delimiter", delimiter);
+        return this;
+    }
+
+    public PgCopyReader setQuoteChar(String quoteChar) {
+        this.quoteChar = toSingleChar("quoteChar", quoteChar);
+        return this;
+    }
+
+    /**
+     * Maps the CSV output escape sequence that replaces a quote (for example "" or \")
+     * to the COPY escape character preceding the quote.
+     */
+    public PgCopyReader setEscapeChar(String escapeChar) {
+        String escape = "\"".replaceAll("\"", escapeChar);
+        Assert.isTrue(escape.length() == 2 && escape.charAt(1) == '"',
+                "Param [escapeChar] must be a single char followed by a quote for native copy");
+        this.escapeChar = escape.charAt(0);
+        return this;
+    }
+
+    public PgCopyReader setPrintHeader(boolean printHeader) {
+        this.printHeader = printHeader;
+        return this;
+    }
+
+    public PgCopyReader setPrintQuotes(boolean printQuotes) {
+        this.printQuotes = printQuotes;
+        return this;
+    }
+
+    public PgCopyReader setMeter(CopyMeter meter) {
+        this.meter = meter;
+        return this;
+    }
+
+    /**
+     * @param cancellation cancels the running copy, for example when the client went away
+     */
+    public PgCopyReader setCancellation(Cancellation cancellation) {
+        this.cancellation = cancellation;
+        return this;
+    }
+
+    /**
+     * @param snapshot snapshot to copy from, for a consistent view across readers
+     */
+    public PgCopyReader setSnapshot(Snapshot snapshot) {
+        this.snapshot = snapshot;
+        return this;
+    }
+
+    // Unregistered before the connection is released, whether or not the copy completed.
+    // Aborted after cancelling, see JdbcCursorReader.
+    private Cancellation.Registration register(Connection connection) throws SQLException {
+        if (cancellation == null) {
+            return null;
+        }
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        return cancellation.register(() -> {
+            pgConnection.cancelQuery();
+            connection.abort(Runnable::run);
+        });
+    }
+
+    private Snapshot.Lease join(Connection connection) throws SQLException {
+        if (snapshot == null) {
+            return null;
+        }
+        // Reset by the pool on release
+        connection.setAutoCommit(false);
+        connection.setReadOnly(true);
+        return snapshot.join(connection);
+    }
+
+    private static char toSingleChar(String name, String value) {
+        Assert.isTrue(value.length() == 1, "Param [" + name + "] must be a single char for native copy");
+        return value.charAt(0);
+    }
+
+    private static String toLiteral(char c) {
+        return c == '\'' ? "''''" : "'" + c + "'";
+    }
+
+    public String toCopySql() {
+        String sql = query;
+        if (maxRows != UNDEFINED || rowOffset > 0) {
+            sql = "select * from (" + query + ") c";
+            if (maxRows != UNDEFINED) {
+                // Empty like the cursor path if the offset is past max rows, rather than fail
+                sql += " limit " + Math.max(0, maxRows - rowOffset);
+            }
+            if (rowOffset > 0) {
+                sql += " offset " + rowOffset;
+            }
+        }
+
+        List<String> options = new ArrayList<>();
+        options.add("FORMAT csv");
+        options.add("DELIMITER " + toLiteral(delimiter));
+        options.add("QUOTE " + toLiteral(quoteChar));
+        options.add("ESCAPE " + toLiteral(escapeChar));
+        if (printHeader) {
+            options.add("HEADER true");
+        }
+        if (printQuotes) {
+            options.add("FORCE_QUOTE *");
+        }
+
+        return "COPY (" + sql + ") TO STDOUT WITH (" + String.join(", ", options) + ")";
+    }
+
+    public void read(OutputStream outputStream) {
+        Assert.notNull(dataSource, "dataSource is null");
+        Assert.hasLength(query, "query is empty");
+
+        if (maxRows != UNDEFINED && rowOffset >= maxRows) {
+            return;
+        }
+
+        final String sql = toCopySql();
+        final SQLExceptionTranslator exceptionTranslator = new SQLErrorCodeSQLExceptionTranslator(dataSource);
+
+        // The header line isn't counted as a row
+        long rows = printHeader ? -1 : 0;
+        long blockedNanos = 0;
+        long readTime = System.nanoTime();
+
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try (Cancellation.Registration registration = register(connection);
+             Snapshot.Lease snapshotLease = join(connection)) {
+            CopyOut copyOut = connection.unwrap(PGConnection.class).getCopyAPI().copyOut(sql);
+            try {
+                byte[] buffer = new byte[bufferSize];
+                int position = 0;
+                byte[] row;
+                while ((row = copyOut.readFromCopy()) != null) {
+                    blockedNanos += System.nanoTime() - readTime;
+                    if (position + row.length > buffer.length && position > 0) {
+                        outputStream.write(buffer, 0, position);
+                        position = 0;
+                    }
+                    if (row.length > buffer.length) {
+                        outputStream.write(row);
+                    } else {
+                        System.arraycopy(row, 0, buffer, position, row.length);
+                        position += row.length;
+                    }
+
+                    if (meter != null && ++rows == METER_BATCH_SIZE) {
+                        meter.recordRead(rows, blockedNanos);
+                        rows = 0;
+                        blockedNanos = 0;
+                    }
+                    readTime = System.nanoTime();
+                }
+                if (position > 0) {
+                    outputStream.write(buffer, 0, position);
+                }
+                logger.debug("Copied {} rows", copyOut.getHandledRowCount());
+                if (snapshotLease != null) {
+                    connection.commit();
+                }
+            } finally {
+                if (copyOut.isActive()) {
+                    copyOut.cancelCopy();
+                }
+            }
+        } catch (SQLException ex) {
+            throw exceptionTranslator.translate("Executing copy", sql, ex);
+        } catch (IOException ex) {
+            throw new DataAccessResourceFailureException("I/O error", ex);
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+            if (meter != null) {
+                meter.recordRead(Math.max(rows, 0), blockedNanos);
+            }
+        }
+    }
+}
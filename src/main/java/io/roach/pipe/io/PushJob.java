@@ -0,0 +1,167 @@
+package io.roach.pipe.io;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * State of a push of a source table or query into a target table, from queued for
+ * connections until completed, failed or cancelled.
+ */
+public class PushJob {
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        FAILED,
+        CANCELLED
+    }
+
+    private final String id = UUID.randomUUID().toString();
+
+    private final String source;
+
+    private final String target;
+
+    private final String table;
+
+    private final Cancellation cancellation = new Cancellation();
+
+    private final Instant createTime = Instant.now();
+
+    private Status status = Status.QUEUED;
+
+    private Instant startTime;
+
+    private Instant endTime;
+
+    private String error;
+
+    private boolean cancelRequested;
+
+    private JdbcBatchWriter writer;
+
+    public PushJob(String source, String target, String table) {
+        this.source = source;
+        this.target = target;
+        this.table = table;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public Cancellation getCancellation() {
+        return cancellation;
+    }
+
+    public Instant getCreateTime() {
+        return createTime;
+    }
+
+    public synchronized Status getStatus() {
+        return status;
+    }
+
+    public synchronized Instant getStartTime() {
+        return startTime;
+    }
+
+    public synchronized Instant getEndTime() {
+        return endTime;
+    }
+
+    public synchronized String getError() {
+        return error;
+    }
+
+    public synchronized boolean isDone() {
+        return endTime != null;
+    }
+
+    public synchronized long getRowsRead() {
+        return writer != null ? writer.getRowsRead() : 0;
+    }
+
+    public synchronized long getRowsWritten() {
+        return writer != null ? writer.getRowsWritten() : 0;
+    }
+
+    public synchronized long getRetries() {
+        return writer != null ? writer.getRetries() : 0;
+    }
+
+    /**
+     * @return false if cancelled or expired while queued
+     */
+    public synchronized boolean start(JdbcBatchWriter writer) {
+        if (cancelRequested || endTime != null) {
+            return false;
+        }
+        this.writer = writer;
+        this.status = Status.RUNNING;
+        this.startTime = Instant.now();
+        return true;
+    }
+
+    public synchronized void complete() {
+        end(Status.COMPLETED, null);
+    }
+
+    public synchronized void fail(Throwable e) {
+        if (cancelRequested) {
+            end(Status.CANCELLED, null);
+        } else {
+            end(Status.FAILED, e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+    }
+
+    private void end(Status status, String error) {
+        if (endTime == null) {
+            this.status = status;
+            this.error = error;
+            this.endTime = Instant.now();
+        }
+    }
+
+    /**
+     * Fails the push if still queued for connections, releasing the connections it
+     * has already leased.
+     *
+     * @return true if it was queued
+     */
+    public boolean expire(String error) {
+        synchronized (this) {
+            if (status != Status.QUEUED || isDone()) {
+                return false;
+            }
+            end(Status.FAILED, error);
+        }
+        cancellation.cancel();
+        return true;
+    }
+
+    /**
+     * Cancels the push, whether queued or running.
+     */
+    public void cancel() {
+        synchronized (this) {
+            if (isDone()) {
+                return;
+            }
+            cancelRequested = true;
+        }
+        cancellation.cancel();
+    }
+}
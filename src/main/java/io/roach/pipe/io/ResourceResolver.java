@@ -1,11 +1,12 @@
 package io.roach.pipe.io;
 
 import java.io.IOException;
+import java.net.URL;
 import java.util.Map;
 import java.util.stream.Stream;
 
 import org.springframework.core.io.ClassPathResource;
-import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.FileUrlResource;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
 
@@ -23,12 +24,20 @@ public abstract class ResourceResolver {
                 .anyMatch(url::startsWith);
     }
 
+    /**
+     * @return true for urls of resources with a known length, readable from any position
+     */
+    public static boolean isLocalUrl(String url) {
+        return Stream.of("classpath:", "file:")
+                .anyMatch(url::startsWith);
+    }
+
     public static Resource resolve(String url, Map<String, String> allParams) throws IOException {
         if (url.startsWith("classpath:")) {
             return new ClassPathResource(url.substring("classpath:".length()));
         }
         if (url.startsWith("file:")) {
-            return new FileSystemResource(url);
+            return new FileUrlResource(new URL(url));
         }
         if (url.startsWith("http:")) {
             return new UrlResource(url);
@@ -0,0 +1,293 @@
+package io.roach.pipe.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.util.UriUtils;
+
+/**
+ * Size bounded spill-to-disk cache of encoded copy output. An entry is written to a
+ * temp file while the output is streamed to the client, and only becomes visible once
+ * the copy completes. Least recently used entries are deleted when the total size
+ * exceeds the max size, and expired entries on access. The index is kept in memory,
+ * so leftover files are deleted on startup.
+ */
+public class ResultCache {
+    // Only files with this prefix are deleted, in case the directory is shared
+    private static final String FILE_PREFIX = "roach-pipe-";
+
+    private static final String ENTRY_SUFFIX = ".cache";
+
+    private static final String SPILL_SUFFIX = ".tmp";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Path directory;
+
+    private final long maxSize;
+
+    private final long timeToLiveNanos;
+
+    // Access ordered for LRU eviction
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long totalSize;
+
+    private static class Entry {
+        private final Path path;
+
+        private final long size;
+
+        private final long createTime = System.nanoTime();
+
+        Entry(Path path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    public ResultCache(Path directory, long maxSize, Duration timeToLive) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.maxSize = maxSize;
+        this.timeToLiveNanos = timeToLive.toNanos();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                FILE_PREFIX + "*{" + ENTRY_SUFFIX + "," + SPILL_SUFFIX + "}")) {
+            for (Path path : stream) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * @return a key derived from all given params, independent of their order
+     */
+    public static String toKey(Map<String, String> params) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        new TreeMap<>(params).forEach((k, v) -> digest.update((UriUtils.encodeQueryParam(k, StandardCharsets.UTF_8)
+                + "=" + UriUtils.encodeQueryParam(v, StandardCharsets.UTF_8) + "&")
+                .getBytes(StandardCharsets.UTF_8)));
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return a read channel on the cached entry, or null if there is none. The entry
+     * stays readable through the channel even if evicted meanwhile.
+     */
+    public FileChannel open(String key) throws IOException {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (System.nanoTime() - entry.createTime > timeToLiveNanos) {
+                remove(key);
+                return null;
+            }
+            try {
+                return FileChannel.open(entry.path);
+            } catch (NoSuchFileException e) {
+                remove(key);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Starts spilling a new entry, which replaces any current entry once committed.
+     */
+    public Spill spill(String key) throws IOException {
+        return new Spill(key, Files.createTempFile(directory, FILE_PREFIX + key, SPILL_SUFFIX));
+    }
+
+    private void put(String key, Path path, long size) throws IOException {
+        final Path entryPath = directory.resolve(FILE_PREFIX + key + ENTRY_SUFFIX);
+        synchronized (entries) {
+            remove(key);
+            Files.move(path, entryPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            entries.put(key, new Entry(entryPath, size));
+            totalSize += size;
+
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (totalSize > maxSize && it.hasNext()) {
+                Entry eldest = it.next().getValue();
+                it.remove();
+                totalSize -= eldest.size;
+                try {
+                    Files.deleteIfExists(eldest.path);
+                } catch (IOException e) {
+                    logger.warn("Failed to delete evicted [" + eldest.path + "]", e);
+                }
+            }
+        }
+    }
+
+    private void remove(String key) throws IOException {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            totalSize -= entry.size;
+            Files.deleteIfExists(entry.path);
+        }
+    }
+
+    /**
+     * An entry being written. Spilling is abandoned without failing the copy if the
+     * entry outgrows the cache or the file can't be written.
+     */
+    public class Spill implements Closeable {
+        private final String key;
+
+        private final Path path;
+
+        private OutputStream fileOut;
+
+        private long size;
+
+        private boolean committed;
+
+        Spill(String key, Path path) throws IOException {
+            this.key = key;
+            this.path = path;
+            this.fileOut = new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE);
+        }
+
+        /**
+         * @return a stream writing to the given stream and to the spill file
+         */
+        public OutputStream tee(OutputStream outputStream) {
+            return new FilterOutputStream(outputStream) {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    try {
+                        out.write(b, off, len);
+                    } catch (IOException e) {
+                        abandonOnError();
+                        throw e;
+                    }
+                    spill(b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    try {
+                        out.flush();
+                    } catch (IOException e) {
+                        abandonOnError();
+                        throw e;
+                    }
+                }
+            };
+        }
+
+        // Some writers swallow errors, make sure a truncated result isn't committed
+        private void abandonOnError() {
+            if (fileOut != null) {
+                abandon();
+            }
+        }
+
+        private void spill(byte[] b, int off, int len) {
+            if (fileOut == null) {
+                return;
+            }
+            if (size + len > maxSize) {
+                logger.info("Not caching result exceeding {} bytes", maxSize);
+                abandon();
+                return;
+            }
+            try {
+                fileOut.write(b, off, len);
+                size += len;
+            } catch (IOException e) {
+                logger.warn("Not caching result, spill to [" + path + "] failed", e);
+                abandon();
+            }
+        }
+
+        private void abandon() {
+            try {
+                fileOut.close();
+            } catch (IOException e) {
+                // Deleted on close anyway
+            }
+            fileOut = null;
+        }
+
+        /**
+         * Makes the spilled output visible to readers, to be called once the copy
+         * completed successfully. If the file can't be completed, the result is just
+         * not cached since the copy itself succeeded.
+         */
+        public void commit() {
+            if (fileOut == null) {
+                return;
+            }
+            try {
+                fileOut.close();
+                fileOut = null;
+                put(key, path, size);
+                committed = true;
+                logger.info("Cached result of {} bytes, total {} bytes", size, getTotalSize());
+            } catch (IOException e) {
+                logger.warn("Not caching result, commit of [" + path + "] failed", e);
+                fileOut = null;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (fileOut != null) {
+                abandon();
+            }
+            if (!committed) {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    logger.warn("Failed to delete [" + path + "]", e);
+                }
+            }
+        }
+    }
+
+    public long getTotalSize() {
+        synchronized (entries) {
+            return totalSize;
+        }
+    }
+}
@@ -5,5 +5,11 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 
 public interface RowWriter<T> {
+    /**
+     * Invoked once the query is executed and before the first row, also for empty results.
+     */
+    default void begin(ResultSet rs) throws IOException, SQLException {
+    }
+
     void write(ResultSet rs, T item) throws IOException, SQLException;
 }
@@ -0,0 +1,163 @@
+package io.roach.pipe.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.core.io.Resource;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Content of known length which can be written from any position, for serving range
+ * requests. Files are written to channel streams through a pooled direct buffer, which
+ * the server writes to the socket as is, and to other streams with positional channel
+ * transfers. Files aren't memory mapped, since mappings are only released on
+ * garbage collection and fault if the file is truncated meanwhile. Other resources,
+ * such as classpath resources in a jar, are written by skipping ahead in a stream.
+ */
+public abstract class SeekableContent implements Closeable {
+    /**
+     * @param channel channel to read from, closed along with the content
+     */
+    public static SeekableContent of(FileChannel channel) throws IOException {
+        return new ChannelContent(channel);
+    }
+
+    public static SeekableContent of(Resource resource) throws IOException {
+        if (resource.isFile()) {
+            return of(FileChannel.open(resource.getFile().toPath()));
+        }
+        return new ResourceContent(resource);
+    }
+
+    public abstract long length();
+
+    /**
+     * Writes the given number of bytes from the given position.
+     */
+    public abstract void writeTo(OutputStream outputStream, long position, long count) throws IOException;
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    private static class ChannelContent extends SeekableContent {
+        private static final int BUFFER_SIZE = 1024 * 1024;
+
+        // Direct memory is only freed on garbage collection, so buffers are allocated up to
+        // this many and reused. Beyond that, ranges are written like to other streams.
+        private static final int MAX_BUFFERS = 16;
+
+        private static final BlockingQueue<ByteBuffer> BUFFER_POOL = new ArrayBlockingQueue<>(MAX_BUFFERS);
+
+        private static final AtomicInteger allocatedBuffers = new AtomicInteger();
+
+        private final FileChannel channel;
+
+        private final long length;
+
+        ChannelContent(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.length = channel.size();
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream, long position, long count) throws IOException {
+            final long end = position + count;
+            final ByteBuffer buffer = outputStream instanceof WritableByteChannel ? takeBuffer() : null;
+            if (buffer != null) {
+                final WritableByteChannel out = (WritableByteChannel) outputStream;
+                // One window reused for the whole range, as Buffer to link on Java 8
+                final Buffer window = buffer;
+                try {
+                    while (position < end) {
+                        window.clear();
+                        window.limit((int) Math.min(window.capacity(), end - position));
+                        // Reads fail rather than fault like a mapping if the file is truncated
+                        int n = channel.read(buffer, position);
+                        if (n < 0) {
+                            throw new EOFException("File truncated at " + position + " bytes");
+                        }
+                        position += n;
+                        window.flip();
+                        while (buffer.hasRemaining()) {
+                            out.write(buffer);
+                        }
+                    }
+                } finally {
+                    BUFFER_POOL.offer(buffer);
+                }
+                return;
+            }
+
+            final WritableByteChannel out = Channels.newChannel(outputStream);
+            while (position < end) {
+                long n = channel.transferTo(position, end - position, out);
+                if (n <= 0) {
+                    throw new EOFException("File truncated at " + position + " bytes");
+                }
+                position += n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        /**
+         * @return a pooled buffer, or null if all buffers are in use
+         */
+        private static ByteBuffer takeBuffer() {
+            ByteBuffer buffer = BUFFER_POOL.poll();
+            if (buffer == null) {
+                if (allocatedBuffers.incrementAndGet() <= MAX_BUFFERS) {
+                    return ByteBuffer.allocateDirect(BUFFER_SIZE);
+                }
+                allocatedBuffers.decrementAndGet();
+            }
+            return buffer;
+        }
+    }
+
+    private static class ResourceContent extends SeekableContent {
+        private final Resource resource;
+
+        private final long length;
+
+        ResourceContent(Resource resource) throws IOException {
+            this.resource = resource;
+            this.length = resource.contentLength();
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream, long position, long count) throws IOException {
+            if (count == 0) {
+                return;
+            }
+            try (InputStream in = resource.getInputStream()) {
+                StreamUtils.copyRange(in, outputStream, position, position + count - 1);
+            }
+        }
+    }
+}
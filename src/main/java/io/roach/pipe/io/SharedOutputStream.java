@@ -0,0 +1,46 @@
+package io.roach.pipe.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.springframework.util.Assert;
+
+/**
+ * Output stream shared by concurrent row writers. Each write is atomic with respect
+ * to other writers, so writers that only emit whole rows never interleave within a row.
+ * Closing only flushes, the delegate is closed by its owner.
+ */
+public class SharedOutputStream extends OutputStream {
+    private final OutputStream delegate;
+
+    public SharedOutputStream(OutputStream delegate) {
+        Assert.notNull(delegate, "delegate is null");
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        synchronized (delegate) {
+            delegate.write(b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        synchronized (delegate) {
+            delegate.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        synchronized (delegate) {
+            delegate.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+}
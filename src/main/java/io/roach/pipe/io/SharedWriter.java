@@ -0,0 +1,39 @@
+package io.roach.pipe.io;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.springframework.util.Assert;
+
+/**
+ * Writer shared by concurrent row writers. Each write is atomic with respect to
+ * other writers, so writers that only emit whole rows never interleave within a row.
+ * Closing only flushes, the delegate is closed by its owner.
+ */
+public class SharedWriter extends Writer {
+    private final Writer delegate;
+
+    public SharedWriter(Writer delegate) {
+        Assert.notNull(delegate, "delegate is null");
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        synchronized (delegate) {
+            delegate.write(cbuf, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        synchronized (delegate) {
+            delegate.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+}
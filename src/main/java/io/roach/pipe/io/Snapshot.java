@@ -0,0 +1,103 @@
+package io.roach.pipe.io;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.regex.Pattern;
+
+import org.springframework.util.Assert;
+
+/**
+ * A point in time of a source database which transactions on different connections
+ * can read from, for a consistent view across the tables and partitions of a copy.
+ * Either a PostgreSQL snapshot exported by another transaction, which must be kept
+ * open for as long as new transactions import it, or a CockroachDB timestamp.
+ */
+public abstract class Snapshot {
+    private static final Pattern SNAPSHOT_ID = Pattern.compile("[0-9A-Fa-f-]+");
+
+    private static final Pattern DECIMAL = Pattern.compile("-?[0-9]+(\\.[0-9]+)?");
+
+    /**
+     * A claim on the snapshot which keeps it from being released until closed.
+     */
+    public interface Lease extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * @param snapshotId id returned by {@code pg_export_snapshot()}
+     */
+    public static Snapshot exported(String snapshotId) {
+        Assert.isTrue(SNAPSHOT_ID.matcher(snapshotId).matches(), "Invalid snapshot id: " + snapshotId);
+        return new Snapshot(snapshotId) {
+            @Override
+            public String getParamName() {
+                return "snapshot";
+            }
+
+            @Override
+            public Lease join(Connection connection) throws SQLException {
+                return execute(connection, "SET TRANSACTION ISOLATION LEVEL REPEATABLE READ",
+                        "SET TRANSACTION SNAPSHOT '" + snapshotId + "'");
+            }
+        };
+    }
+
+    /**
+     * @param timestamp a decimal cluster timestamp as returned by {@code cluster_logical_timestamp()},
+     * or any other expression accepted by {@code AS OF SYSTEM TIME} as a string
+     */
+    public static Snapshot asOfSystemTime(String timestamp) {
+        Assert.hasLength(timestamp, "Empty timestamp");
+        return new Snapshot(timestamp) {
+            @Override
+            public String getParamName() {
+                return "asOfSystemTime";
+            }
+
+            @Override
+            public Lease join(Connection connection) throws SQLException {
+                return execute(connection, "SET TRANSACTION AS OF SYSTEM TIME "
+                        + (DECIMAL.matcher(timestamp).matches() ? timestamp : "'" + timestamp.replace("'", "''") + "'"));
+            }
+        };
+    }
+
+    private final String id;
+
+    protected Snapshot(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return name of the copy param selecting this snapshot
+     */
+    public abstract String getParamName();
+
+    /**
+     * Makes the current transaction of the connection read from this snapshot. Must be
+     * called before any other statement in the transaction, with auto-commit disabled.
+     */
+    public abstract Lease join(Connection connection) throws SQLException;
+
+    private static Lease execute(Connection connection, String... statements) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : statements) {
+                statement.execute(sql);
+            }
+        }
+        return () -> {
+        };
+    }
+
+    @Override
+    public String toString() {
+        return getParamName() + "=" + id;
+    }
+}
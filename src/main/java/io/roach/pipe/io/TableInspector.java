@@ -0,0 +1,175 @@
+package io.roach.pipe.io;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.sql.DataSource;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.Assert;
+
+/**
+ * Inspects a source table's columns, primary key, size and key distribution
+ * through JDBC metadata, with PostgreSQL catalog shortcuts where available.
+ */
+public class TableInspector {
+    private final JdbcTemplate jdbcTemplate;
+
+    private final String table;
+
+    public TableInspector(DataSource dataSource, String table) {
+        Assert.notNull(dataSource, "dataSource is null");
+        Assert.hasLength(table, "table is empty");
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.table = table;
+    }
+
+    /**
+     * @param schema schema to list, or null for the current schema
+     * @return schema qualified names of the base tables in the schema
+     */
+    public static List<String> getTableNames(DataSource dataSource, String schema) {
+        return new JdbcTemplate(dataSource).execute((ConnectionCallback<List<String>>) connection -> {
+            DatabaseMetaData metaData = connection.getMetaData();
+            String schemaName = schema != null ? normalize(metaData, schema) : connection.getSchema();
+            List<String> tables = new ArrayList<>();
+            try (ResultSet rs = metaData.getTables(null, schemaName, "%", new String[] {"TABLE"})) {
+                while (rs.next()) {
+                    tables.add(rs.getString("TABLE_SCHEM") + "." + rs.getString("TABLE_NAME"));
+                }
+            }
+            return tables;
+        });
+    }
+
+    public List<String> getColumnNames() {
+        return jdbcTemplate.execute((ConnectionCallback<List<String>>) connection -> {
+            DatabaseMetaData metaData = connection.getMetaData();
+            List<String> columns = new ArrayList<>();
+            try (ResultSet rs = metaData.getColumns(null, schemaName(connection), tableName(metaData), null)) {
+                while (rs.next()) {
+                    columns.add(rs.getString("COLUMN_NAME"));
+                }
+            }
+            return columns;
+        });
+    }
+
+    public List<String> getPrimaryKey() {
+        return jdbcTemplate.execute((ConnectionCallback<List<String>>) connection -> {
+            DatabaseMetaData metaData = connection.getMetaData();
+            Map<Short, String> columns = new TreeMap<>();
+            try (ResultSet rs = metaData.getPrimaryKeys(null, schemaName(connection), tableName(metaData))) {
+                while (rs.next()) {
+                    columns.put(rs.getShort("KEY_SEQ"), rs.getString("COLUMN_NAME"));
+                }
+            }
+            return new ArrayList<>(columns.values());
+        });
+    }
+
+    public boolean isIntegerColumn(String column) {
+        Boolean integer = jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> {
+            DatabaseMetaData metaData = connection.getMetaData();
+            try (ResultSet rs = metaData.getColumns(null, schemaName(connection), tableName(metaData),
+                    normalize(metaData, column))) {
+                if (rs.next()) {
+                    return isIntegerType(rs.getInt("DATA_TYPE"));
+                }
+            }
+            return false;
+        });
+        return Boolean.TRUE.equals(integer);
+    }
+
+    /**
+     * @param sqlType type from {@link Types}
+     * @return true for the integer types which key ranges can be split on
+     */
+    public static boolean isIntegerType(int sqlType) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return estimated row count from the planner statistics if available, otherwise an exact count
+     */
+    public long estimateRowCount() {
+        if (isPostgreSQL()) {
+            Long estimate = jdbcTemplate.queryForObject(
+                    "select reltuples::bigint from pg_class where oid = ?::regclass", Long.class, table);
+            if (estimate != null && estimate > 0) {
+                return estimate;
+            }
+        }
+        Long count = jdbcTemplate.queryForObject("select count(1) from " + table, Long.class);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * @return the equi-depth histogram bounds of an integer column from the planner
+     * statistics in ascending order, or an empty list if not available
+     */
+    public List<Long> getHistogramBounds(String column) {
+        if (!isPostgreSQL()) {
+            return Collections.emptyList();
+        }
+        List<String> histograms = jdbcTemplate.queryForList(
+                "select s.histogram_bounds::text from pg_stats s "
+                        + "join pg_class c on c.relname = s.tablename "
+                        + "join pg_namespace n on n.oid = c.relnamespace and n.nspname = s.schemaname "
+                        + "where c.oid = ?::regclass and s.attname = ?",
+                String.class, table, column);
+        if (histograms.isEmpty() || histograms.get(0) == null) {
+            return Collections.emptyList();
+        }
+        String histogram = histograms.get(0);
+        List<Long> bounds = new ArrayList<>();
+        for (String bound : histogram.substring(1, histogram.length() - 1).split(",")) {
+            bounds.add(Long.parseLong(bound.trim()));
+        }
+        return bounds;
+    }
+
+    private boolean isPostgreSQL() throws DataAccessException {
+        String productName = jdbcTemplate.execute(
+                (ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+        return "PostgreSQL".equalsIgnoreCase(productName);
+    }
+
+    private String schemaName(Connection connection) throws SQLException {
+        int i = table.lastIndexOf('.');
+        return i > 0 ? normalize(connection.getMetaData(), table.substring(0, i)) : connection.getSchema();
+    }
+
+    private String tableName(DatabaseMetaData metaData) throws SQLException {
+        return normalize(metaData, table.substring(table.lastIndexOf('.') + 1));
+    }
+
+    private static String normalize(DatabaseMetaData metaData, String identifier) throws SQLException {
+        if (metaData.storesLowerCaseIdentifiers()) {
+            return identifier.toLowerCase();
+        }
+        if (metaData.storesUpperCaseIdentifiers()) {
+            return identifier.toUpperCase();
+        }
+        return identifier;
+    }
+}
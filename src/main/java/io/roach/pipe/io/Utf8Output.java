@@ -0,0 +1,225 @@
+package io.roach.pipe.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.springframework.util.Assert;
+
+/**
+ * Writer encoding UTF-8 straight into a pooled byte buffer which is written to the
+ * output stream when full, in place of a PrintWriter over an OutputStreamWriter over
+ * a BufferedOutputStream. Unlike a PrintWriter, write errors are thrown, and once a
+ * write failed so do all further writes.
+ * <p>
+ * The stream is flushed on the first write, so that the first rows reach the client
+ * without waiting for a full buffer, and after that once the given number of bytes
+ * or time has passed since the last flush, checked on each write. Unpaired surrogates
+ * are encoded as '?' like the JDK encoder does.
+ */
+public class Utf8Output extends Writer {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    // Buffers of the default size are reused across copies, up to this many
+    private static final BlockingQueue<byte[]> BUFFER_POOL = new ArrayBlockingQueue<>(64);
+
+    private final OutputStream out;
+
+    private byte[] buffer;
+
+    private int position;
+
+    private char highSurrogate;
+
+    private long flushBytes;
+
+    private long flushIntervalNanos;
+
+    private long unflushedBytes;
+
+    private long lastFlushTime;
+
+    private boolean flushed;
+
+    private IOException failure;
+
+    public Utf8Output(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    public Utf8Output(OutputStream out, int bufferSize) {
+        Assert.notNull(out, "out is null");
+        Assert.isTrue(bufferSize >= 4, "bufferSize must be >= 4");
+        this.out = out;
+        this.buffer = bufferSize == DEFAULT_BUFFER_SIZE ? takeBuffer() : new byte[bufferSize];
+    }
+
+    private static byte[] takeBuffer() {
+        byte[] pooled = BUFFER_POOL.poll();
+        return pooled != null ? pooled : new byte[DEFAULT_BUFFER_SIZE];
+    }
+
+    /**
+     * @param flushBytes flush once this many bytes were written since the last flush, or 0 to
+     * only flush on full buffers
+     */
+    public Utf8Output setFlushBytes(long flushBytes) {
+        this.flushBytes = flushBytes;
+        return this;
+    }
+
+    /**
+     * @param flushInterval flush once this much time passed since the last flush, or zero to
+     * not flush by time
+     */
+    public Utf8Output setFlushInterval(Duration flushInterval) {
+        this.flushIntervalNanos = flushInterval.toNanos();
+        return this;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        write(new char[] {(char) c}, 0, 1);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        write(str.substring(off, off + len).toCharArray(), 0, len);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        checkFailure();
+        final byte[] buf = buffer;
+        final int end = off + len;
+        int pos = position;
+        int start = pos;
+        int i = off;
+        while (i < end) {
+            if (buf.length - pos < 4) {
+                unflushedBytes += pos - start;
+                position = pos;
+                drain();
+                pos = start = 0;
+            }
+            // ASCII fast path, bounded by the space left
+            final int asciiEnd = Math.min(end, i + buf.length - pos);
+            char c;
+            while (i < asciiEnd && (c = cbuf[i]) < 0x80 && highSurrogate == 0) {
+                buf[pos++] = (byte) c;
+                i++;
+            }
+            if (i == end || buf.length - pos < 4) {
+                continue;
+            }
+
+            c = cbuf[i++];
+            if (highSurrogate != 0) {
+                final char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    final int cp = Character.toCodePoint(high, c);
+                    buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+                    continue;
+                }
+                buf[pos++] = '?';
+                if (buf.length - pos < 4) {
+                    // Encode c after making room
+                    i--;
+                    continue;
+                }
+            }
+            if (c < 0x80) {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c)) {
+                // Possibly completed by the next write
+                highSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        unflushedBytes += pos - start;
+        position = pos;
+
+        if (!flushed
+                || (flushBytes > 0 && unflushedBytes >= flushBytes)
+                || (flushIntervalNanos > 0 && System.nanoTime() - lastFlushTime >= flushIntervalNanos)) {
+            flush();
+        }
+    }
+
+    private void drain() throws IOException {
+        if (position > 0) {
+            try {
+                out.write(buffer, 0, position);
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+            position = 0;
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Write failed earlier", failure);
+        }
+        if (buffer == null) {
+            throw new IOException("Output closed");
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        checkFailure();
+        drain();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        }
+        flushed = true;
+        unflushedBytes = 0;
+        lastFlushTime = System.nanoTime();
+    }
+
+    /**
+     * Flushes and closes the stream, unless a write failed, in which case the stream is
+     * closed without flushing.
+     */
+    @Override
+    public void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            if (failure == null) {
+                if (highSurrogate != 0) {
+                    highSurrogate = 0;
+                    write(new char[] {'?'}, 0, 1);
+                }
+                flush();
+            }
+        } finally {
+            if (buffer.length == DEFAULT_BUFFER_SIZE) {
+                BUFFER_POOL.offer(buffer);
+            }
+            buffer = null;
+            out.close();
+        }
+    }
+}
@@ -3,67 +3,275 @@ package io.roach.pipe.web;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.net.URI;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.sql.DataSource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.FileCopyUtils;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import io.roach.pipe.config.DataSourceFactory;
+import io.roach.pipe.config.DataSourceLease;
+import io.roach.pipe.config.SnapshotRegistry;
+import io.roach.pipe.config.SourceBusyException;
+import io.roach.pipe.io.AvroOutput;
+import io.roach.pipe.io.Cancellation;
+import io.roach.pipe.io.ChunkPipe;
+import io.roach.pipe.io.Compression;
+import io.roach.pipe.io.CopyMeter;
 import io.roach.pipe.io.CsvOutput;
 import io.roach.pipe.io.JdbcCursorReader;
+import io.roach.pipe.io.JdbcDialect;
+import io.roach.pipe.io.KeyRange;
+import io.roach.pipe.io.KeyRangeSplitter;
+import io.roach.pipe.io.Keyset;
+import io.roach.pipe.io.PgCopyOutput;
+import io.roach.pipe.io.PgCopyReader;
 import io.roach.pipe.io.ResourceResolver;
+import io.roach.pipe.io.ResultCache;
+import io.roach.pipe.io.SeekableContent;
+import io.roach.pipe.io.SharedOutputStream;
+import io.roach.pipe.io.SharedWriter;
+import io.roach.pipe.io.Snapshot;
+import io.roach.pipe.io.Utf8Output;
+
+import static io.roach.pipe.web.RequestParams.toLongOrNull;
+import static io.roach.pipe.web.RequestParams.toNumber;
+import static io.roach.pipe.web.RequestParams.toSnapshot;
 
 @RestController
 public class CopyController {
-    protected final Logger logger = LoggerFactory.getLogger(getClass());
+    // Params which don't affect the output of a copy
+    private static final Set<String> TRANSFER_PARAMS = new HashSet<>(Arrays.asList(
+            "cache", "poolSize", "fetchSize", "chunkSize", "chunkCount"));
 
-    private final Map<String, DataSource> dataSourceCache = new ConcurrentHashMap<>();
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
 
     @Autowired
     private DataSourceFactory dataSourceFactory;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    @Qualifier("copyExecutor")
+    private AsyncTaskExecutor copyExecutor;
+
+    @Autowired
+    private ResultCache resultCache;
+
+    @Autowired
+    private SnapshotRegistry snapshotRegistry;
+
+    @Value("${pipe.chunk-size}")
+    private int defaultChunkSize;
+
+    @Value("${pipe.chunk-count}")
+    private int defaultChunkCount;
+
+    @Value("${pipe.chunk-max-size}")
+    private int maxChunkSize;
+
+    @Value("${pipe.chunk-max-count}")
+    private int maxChunkCount;
+
+    @Value("${pipe.admission.queue-timeout}")
+    private Duration queueTimeout;
+
+    @Value("${pipe.output.buffer-size}")
+    private int outputBufferSize;
+
+    @Value("${pipe.output.flush-bytes}")
+    private DataSize outputFlushBytes;
+
+    @Value("${pipe.output.flush-interval}")
+    private Duration outputFlushInterval;
+
     @GetMapping(value = {"/copy", "/download"})
-    public ResponseEntity<StreamingResponseBody> downloadResource(@RequestParam Map<String, String> allParams)
-            throws IOException {
+    public DeferredResult<ResponseEntity<StreamingResponseBody>> downloadResource(
+            @RequestParam Map<String, String> allParams,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            HttpServletRequest request) throws IOException {
         final String url = allParams.get("url");
         if (url == null) {
             throw new BadRequestException("Missing required param [url]");
         }
 
-        final StreamingResponseBody responseBody;
-        if (ResourceResolver.isJdbcUrl(url)) {
-            responseBody = copyQueryResult(allParams);
-        } else if (ResourceResolver.isSupportedUrl(url)) {
-            responseBody = copyInputStream(ResourceResolver.resolve(url, allParams));
+        final Compression compression;
+        final int level;
+        try {
+            compression = allParams.containsKey("compression")
+                    ? Compression.fromName(allParams.get("compression"))
+                    : null;
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+        if (compression != null) {
+            level = toNumber(allParams.getOrDefault("level", String.valueOf(compression.getDefaultLevel())));
+            if (!compression.isValidLevel(level)) {
+                throw new BadRequestException("Unsupported " + compression.getName() + " level: " + level);
+            }
+        } else if (allParams.containsKey("level")) {
+            throw new BadRequestException("Missing param [compression] required by [level]");
         } else {
+            level = 0;
+        }
+
+        final boolean jdbc = ResourceResolver.isJdbcUrl(url);
+        if (!jdbc && !ResourceResolver.isSupportedUrl(url)) {
             throw new BadRequestException("Unsupported url: " + url);
         }
 
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_PLAIN_VALUE)
-                .header(HttpHeaders.CONTENT_DISPOSITION, "inline")
-                .header("Cache-Control", "no-cache, no-store, must-revalidate")
-                .header("Pragma", "no-cache")
-                .header("Expires", "0")
-                .body(responseBody);
+        final Resource resource;
+        final String fileName;
+        final CopyMeter meter;
+        if (jdbc) {
+            resource = null;
+            fileName = allParams.getOrDefault("table", "query") + "." + allParams.getOrDefault("format", "csv");
+            meter = new CopyMeter(meterRegistry, dataSourceFactory.toSourceName(allParams),
+                    allParams.getOrDefault("table", "query"));
+        } else {
+            resource = ResourceResolver.resolve(url, allParams);
+            fileName = String.valueOf(resource.getFilename());
+            // Tagged by scheme only, file names would add series without bound
+            meter = new CopyMeter(meterRegistry, url.substring(0, url.indexOf(':')), "resource");
+        }
+
+        String contentType = "avro".equals(allParams.get("format")) || "pgcopy".equals(allParams.get("format"))
+                ? MediaType.APPLICATION_OCTET_STREAM_VALUE
+                : MediaType.TEXT_PLAIN_VALUE;
+        String contentDisposition = "inline";
+        if (compression != null) {
+            // Served as a compressed file rather than with a content encoding, which
+            // clients would transparently decode
+            contentType = compression.getContentType();
+            contentDisposition = "attachment; filename=\"" + fileName + compression.getFileSuffix() + "\"";
+        }
+
+        final HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_TYPE, contentType);
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, contentDisposition);
+        headers.set("Cache-Control", "no-cache, no-store, must-revalidate");
+        headers.set("Pragma", "no-cache");
+        headers.set("Expires", "0");
+
+        if (jdbc) {
+            String key = null;
+            if (Boolean.parseBoolean(allParams.getOrDefault("cache", "false"))) {
+                key = cacheKey(allParams);
+                final FileChannel channel = resultCache.open(key);
+                if (channel != null) {
+                    logger.info("Copying cached result of [{}]", allParams.getOrDefault("query", allParams.get("table")));
+                    return completed(ranged(SeekableContent.of(channel), range, headers, meter));
+                }
+            }
+            // Cancelled by the async interceptor if the request times out or fails
+            final Cancellation cancellation = new Cancellation();
+            request.setAttribute(Cancellation.ATTRIBUTE, cancellation);
+            return copyQueryResult(allParams, compression, level, key, headers, meter, cancellation,
+                    request.getRemoteAddr());
+        }
+
+        if (ResourceResolver.isLocalUrl(url)) {
+            if (!resource.exists()) {
+                throw new NotFoundException("Resource not found: " + url);
+            }
+            if (compression == null) {
+                logger.info("Copying from [{}]", resource.getFilename());
+                return completed(ranged(SeekableContent.of(resource), range, headers, meter));
+            }
+        }
+        return completed(ResponseEntity.ok()
+                .headers(headers)
+                .body(metered(meter, compressed(compression, level, copyInputStream(resource)))));
+    }
+
+    private static <T> DeferredResult<T> completed(T value) {
+        DeferredResult<T> result = new DeferredResult<>();
+        result.setResult(value);
+        return result;
+    }
+
+    /**
+     * Serves the content in full, or the byte range requested if a single range. Multiple
+     * ranges and malformed range headers are ignored as permitted by RFC 7233.
+     */
+    private ResponseEntity<StreamingResponseBody> ranged(SeekableContent content, String range,
+                                                         HttpHeaders headers, CopyMeter meter) throws IOException {
+        final long length = content.length();
+
+        List<HttpRange> ranges;
+        try {
+            ranges = range != null ? HttpRange.parseRanges(range) : Collections.emptyList();
+        } catch (IllegalArgumentException e) {
+            ranges = Collections.emptyList();
+        }
+
+        long position = 0;
+        long count = length;
+        HttpStatus status = HttpStatus.OK;
+        if (ranges.size() == 1) {
+            position = ranges.get(0).getRangeStart(length);
+            if (position >= length) {
+                content.close();
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + length)
+                        .build();
+            }
+            count = ranges.get(0).getRangeEnd(length) - position + 1;
+            status = HttpStatus.PARTIAL_CONTENT;
+            headers.set(HttpHeaders.CONTENT_RANGE,
+                    "bytes " + position + "-" + (position + count - 1) + "/" + length);
+            // Keeps server compression off, it would encode the range rather than range the encoding
+            headers.set(HttpHeaders.CONTENT_ENCODING, "identity");
+        }
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        headers.setContentLength(count);
+
+        final long from = position;
+        final long bytes = count;
+        return ResponseEntity.status(status)
+                .headers(headers)
+                .body(metered(meter, outputStream -> {
+                    try (SeekableContent in = content) {
+                        in.writeTo(outputStream, from, bytes);
+                    }
+                }));
     }
 
     private StreamingResponseBody copyInputStream(Resource input) {
@@ -75,73 +283,424 @@ public class CopyController {
         };
     }
 
-    private String toDataSourceKey(String url) {
-        if (url.startsWith("jdbc:")) {
-            URI u = URI.create(url.substring(5));
-            return u.getScheme() + ":" + u.getHost() + ":" + u.getPort();
+    private String cacheKey(Map<String, String> allParams) {
+        final Map<String, String> keyParams = new HashMap<>(allParams);
+        keyParams.keySet().removeAll(TRANSFER_PARAMS);
+        return ResultCache.toKey(keyParams);
+    }
+
+    /**
+     * Spills the response body to the cache while written, committing it on success.
+     */
+    private StreamingResponseBody cached(String key, StreamingResponseBody responseBody) {
+        return outputStream -> {
+            try (ResultCache.Spill spill = resultCache.spill(key)) {
+                responseBody.writeTo(spill.tee(outputStream));
+                spill.commit();
+            }
+        };
+    }
+
+    /**
+     * Leases the source connections needed by the copy, queueing if the source is busy,
+     * and completes the result with the copy once admitted. No thread is held while
+     * queued, and copies queued for longer than the queue timeout are turned away. The
+     * lease is also released on cancellation, in case the response body never runs.
+     */
+    private DeferredResult<ResponseEntity<StreamingResponseBody>> copyQueryResult(
+            Map<String, String> allParams, Compression compression, int level, String cacheKey,
+            HttpHeaders headers, CopyMeter meter, Cancellation cancellation, String client) {
+        // Merged partitions are read concurrently on a connection each
+        final int connections = allParams.containsKey("partition")
+                ? 1
+                : Math.max(1, toNumber(allParams.getOrDefault("partitions", "1")));
+
+        final CompletableFuture<DataSourceLease> lease;
+        try {
+            lease = dataSourceFactory.acquire(allParams, connections, client);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
         }
-        return url;
+
+        final DeferredResult<ResponseEntity<StreamingResponseBody>> result
+                = new DeferredResult<>(queueTimeout.toMillis());
+        result.onTimeout(() -> {
+            lease.cancel(false);
+            result.setErrorResult(new SourceBusyException("Timed out waiting for connections to ["
+                    + dataSourceFactory.toSourceName(allParams) + "]"));
+        });
+
+        lease.whenCompleteAsync((admitted, ex) -> {
+            if (ex != null) {
+                result.setErrorResult(ex);
+                return;
+            }
+            cancellation.register(admitted::close);
+            try {
+                StreamingResponseBody responseBody = compressed(compression, level, leased(admitted, cancellation,
+                        copyQueryResult(allParams, admitted, meter, cancellation)));
+                if (cacheKey != null) {
+                    responseBody = cached(cacheKey, responseBody);
+                }
+                // Timed out meanwhile
+                if (!result.setResult(ResponseEntity.ok().headers(headers).body(metered(meter, responseBody)))) {
+                    admitted.close();
+                }
+            } catch (RuntimeException e) {
+                admitted.close();
+                result.setErrorResult(e);
+            }
+        }, copyExecutor).exceptionally(ex -> {
+            // Also reached if the lease failed, which was handled above, or else the
+            // executor rejected the callback and the admitted lease is still open
+            lease.thenAccept(DataSourceLease::close);
+            result.setErrorResult(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+            return null;
+        });
+
+        return result;
     }
 
-    private int toNumber(String numStr) {
-        return Integer.parseInt(numStr.replace("_", ""));
+    /**
+     * Releases the lease once the copy is done. A failed copy is cancelled first, since
+     * partitions and the read stage may still be blocked on the source when the client
+     * went away or another partition failed.
+     */
+    private StreamingResponseBody leased(DataSourceLease lease, Cancellation cancellation,
+                                         StreamingResponseBody responseBody) {
+        return outputStream -> {
+            try {
+                responseBody.writeTo(outputStream);
+            } catch (IOException | RuntimeException | Error e) {
+                cancellation.cancel();
+                throw e;
+            } finally {
+                lease.close();
+            }
+        };
     }
 
-    private StreamingResponseBody copyQueryResult(Map<String, String> allParams) {
-        final String url = allParams.get("url");
+    private StreamingResponseBody copyQueryResult(Map<String, String> allParams, DataSourceLease lease,
+                                                  CopyMeter meter, Cancellation cancellation) {
+        final DataSource dataSource = lease.getDataSource();
         final int maxRows = toNumber(allParams.getOrDefault("maxRows", "-1"));
         final int rowOffset = toNumber(allParams.getOrDefault("rowOffset", "0"));
         final int fetchSize = toNumber(allParams.getOrDefault("fetchSize", "256"));
-
-        final String delimiter = allParams.getOrDefault("delimiter", ",");
-        final String quoteChar = allParams.getOrDefault("quoteChar", "\"");
-        final String escapeChar = allParams.getOrDefault("escapeChar", "\"\"");
-        final boolean printHeader = Boolean.parseBoolean(allParams.getOrDefault("printHeader", "false"));
-        final boolean printQuotes = Boolean.parseBoolean(allParams.getOrDefault("printQuotes", "false"));
+        final int partitions = toNumber(allParams.getOrDefault("partitions", "1"));
+        final String splitColumn = allParams.get("splitColumn");
+        final int chunkSize = toNumber(allParams.getOrDefault("chunkSize", String.valueOf(defaultChunkSize)));
+        final int chunkCount = toNumber(allParams.getOrDefault("chunkCount", String.valueOf(defaultChunkCount)));
+        if (chunkSize < 0 || chunkSize > maxChunkSize || chunkCount < 1 || chunkCount > maxChunkCount) {
+            throw new BadRequestException("Param [chunkSize] must be >= 0 and <= " + maxChunkSize
+                    + " and [chunkCount] > 0 and <= " + maxChunkCount);
+        }
 
         final String query;
+        final String from;
         if (allParams.containsKey("query")) {
             query = allParams.get("query");
+            from = "(" + query + ") q";
         } else {
             final String table = allParams.get("table");
             if (table == null) {
                 throw new BadRequestException("Missing both [table] and [query]");
             }
             query = "select * from " + table;
+            from = table;
+        }
+
+        if (partitions < 1) {
+            throw new BadRequestException("Param [partitions] must be > 0");
+        }
+        if (partitions > 1 && splitColumn == null) {
+            throw new BadRequestException("Missing param [splitColumn] required by [partitions]");
+        }
+
+        final Long lowerBound = toLongOrNull(allParams.get("lowerBound"));
+        final Long upperBound = toLongOrNull(allParams.get("upperBound"));
+        if ((lowerBound != null || upperBound != null) && (splitColumn == null || partitions > 1)) {
+            throw new BadRequestException("Params [lowerBound] and [upperBound] require [splitColumn] "
+                    + "and can't be combined with [partitions]");
+        }
+
+        final Keyset keyset;
+        try {
+            keyset = allParams.containsKey("keyColumns")
+                    ? Keyset.parse(allParams.get("keyColumns"), allParams.get("afterKey"))
+                    : null;
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+        if (keyset == null && allParams.containsKey("afterKey")) {
+            throw new BadRequestException("Missing param [keyColumns] required by [afterKey]");
+        }
+        if (keyset != null && keyset.hasPosition() && rowOffset > 0) {
+            throw new BadRequestException("Params [afterKey] and [rowOffset] can't be combined");
+        }
+
+        final Snapshot snapshot = toSnapshot(allParams, snapshotRegistry);
+
+        final JdbcDialect dialect = JdbcDialect.fromUrl(allParams.get("url"));
+        final boolean nativeCopy = Boolean.parseBoolean(allParams.getOrDefault("nativeCopy", "false"));
+        if (nativeCopy && dialect != JdbcDialect.POSTGRESQL) {
+            throw new BadRequestException("Param [nativeCopy] is only supported for PostgreSQL sources");
         }
 
-        final DataSource dataSource = dataSourceCache
-                .computeIfAbsent(toDataSourceKey(url), k -> dataSourceFactory.createDataSource(allParams));
+        if (keyset != null) {
+            try {
+                keyset.resolveTypes(dataSource, dialect, from);
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException(e.getMessage());
+            }
+        }
 
-        logger.info("Connecting to source database [{}] to copy [{}] from offset {} to limit {} with fetch size {}",
-                dataSourceFactory.databaseVersion(dataSource), query, rowOffset, maxRows, fetchSize);
+        final String format = allParams.getOrDefault("format", "csv");
+        if (!"csv".equals(format) && !"avro".equals(format) && !"pgcopy".equals(format)) {
+            throw new BadRequestException("Unsupported format: " + format);
+        }
+        if (!"csv".equals(format) && nativeCopy) {
+            throw new BadRequestException("Param [nativeCopy] is only supported for format [csv]");
+        }
 
-        final JdbcCursorReader reader = new JdbcCursorReader()
-                .setDataSource(dataSource)
-                .setQuery(query)
-                .setRowOffset(rowOffset)
-                .setMaxRows(maxRows)
-                .setFetchSize(fetchSize);
+        // Standalone partitions are split by separate requests, which only line up if
+        // reading the same min and max values
+        if (allParams.containsKey("partition")
+                && (snapshot == null || snapshot.getId().startsWith("-"))) {
+            throw new BadRequestException("Param [partition] requires [snapshot] or an absolute "
+                    + "[asOfSystemTime], otherwise pass [lowerBound] and [upperBound] as /plan does");
+        }
+
+        List<KeyRange> keyRanges = Collections.singletonList(new KeyRange(lowerBound, upperBound));
+        if (partitions > 1) {
+            try {
+                keyRanges = new KeyRangeSplitter()
+                        .setDataSource(dataSource)
+                        .setFrom(from)
+                        .setSplitColumn(splitColumn)
+                        .setSnapshot(snapshot)
+                        .split(partitions);
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException(e.getMessage());
+            }
 
+            if (allParams.containsKey("partition")) {
+                int partition = toNumber(allParams.get("partition"));
+                if (partition < 0 || partition >= partitions) {
+                    throw new BadRequestException("Param [partition] must be >= 0 and < " + partitions);
+                }
+                keyRanges = Collections.singletonList(keyRanges.get(partition));
+            } else if (Boolean.parseBoolean(allParams.getOrDefault("printHeader", "false"))) {
+                throw new BadRequestException("Param [printHeader] is not supported for merged partitions");
+            } else if (allParams.containsKey("rowOffset") || allParams.containsKey("maxRows")) {
+                // Would apply to each key range rather than to the merged result
+                throw new BadRequestException("Params [rowOffset] and [maxRows] are not supported "
+                        + "for merged partitions");
+            } else if (keyset != null) {
+                // Rows of all ranges are interleaved, so the last key seen is no position to resume from
+                throw new BadRequestException("Param [keyColumns] is not supported for merged partitions");
+            } else if (!"csv".equals(format)) {
+                throw new BadRequestException("Format [" + format + "] is not supported for merged partitions");
+            }
+        }
+
+        logger.info("Connecting to source database [{}] to copy [{}] in key ranges {} "
+                        + "from offset {} after key {} to limit {} with fetch size {}",
+                lease.getDatabaseVersion(), query, keyRanges, rowOffset,
+                allParams.get("afterKey"), maxRows, fetchSize);
+        if (snapshot != null) {
+            logger.info("Reading from snapshot [{}]", snapshot);
+        }
+
+        final List<String> queries = new ArrayList<>();
+        final List<Object[]> queryParameters = new ArrayList<>();
+        for (KeyRange keyRange : keyRanges) {
+            List<String> predicates = new ArrayList<>();
+            List<Object> parameters = new ArrayList<>();
+            if (!keyRange.isUnbounded()) {
+                addPredicate(predicates, parameters, keyRange.toPredicate(splitColumn), keyRange.toParameters(),
+                        nativeCopy);
+            }
+            if (keyset != null && keyset.hasPosition()) {
+                addPredicate(predicates, parameters, keyset.toPredicate(), keyset.toParameters(), nativeCopy);
+            }
+
+            String sql = query;
+            if (!predicates.isEmpty() || keyset != null) {
+                sql = "select * from " + from;
+                if (!predicates.isEmpty()) {
+                    sql += " where " + String.join(" and ", predicates);
+                }
+                if (keyset != null) {
+                    sql += " order by " + keyset.toOrderBy();
+                }
+            }
+            queries.add(sql);
+            queryParameters.add(parameters.toArray());
+        }
+
+        if (nativeCopy) {
+            final List<PgCopyReader> readers = new ArrayList<>();
+            try {
+                for (String sql : queries) {
+                    readers.add(new PgCopyReader()
+                            .setDataSource(dataSource)
+                            .setQuery(sql)
+                            .setRowOffset(rowOffset)
+                            .setMaxRows(maxRows)
+                            .setDelimiter(allParams.getOrDefault("delimiter", ","))
+                            .setEscapeChar(allParams.getOrDefault("escapeChar", "\"\""))
+                            .setPrintHeader(Boolean.parseBoolean(allParams.getOrDefault("printHeader", "false")))
+                            .setPrintQuotes(Boolean.parseBoolean(allParams.getOrDefault("printQuotes", "false")))
+                            .setQuoteChar(allParams.getOrDefault("quoteChar", "\""))
+                            .setMeter(meter)
+                            .setCancellation(cancellation)
+                            .setSnapshot(snapshot));
+                }
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException(e.getMessage());
+            }
+
+            return pipelined(chunkSize, chunkCount, outputStream -> {
+                try (OutputStream out = new BufferedOutputStream(outputStream)) {
+                    final OutputStream sharedOut = readers.size() > 1 ? new SharedOutputStream(out) : out;
+                    Partitions.runAll(copyExecutor, readers, reader -> reader.read(sharedOut));
+                }
+            });
+        }
+
+        final List<JdbcCursorReader> readers = new ArrayList<>();
+        for (int i = 0; i < queries.size(); i++) {
+            readers.add(new JdbcCursorReader()
+                    .setDataSource(dataSource)
+                    .setDialect(dialect)
+                    .setQuery(queries.get(i))
+                    .setParameters(queryParameters.get(i))
+                    .setRowOffset(rowOffset)
+                    .setMaxRows(maxRows)
+                    .setFetchSize(fetchSize)
+                    .setMeter(meter)
+                    .setCancellation(cancellation)
+                    .setSnapshot(snapshot));
+        }
+
+        if ("avro".equals(format)) {
+            final String codec = allParams.getOrDefault("codec", "deflate");
+            final String recordName = allParams.getOrDefault("table", "row");
+            if (!AvroOutput.isSupportedCodec(codec)) {
+                throw new BadRequestException("Unsupported codec: " + codec);
+            }
+
+            return pipelined(chunkSize, chunkCount, outputStream -> {
+                try (AvroOutput avroOutput = new AvroOutput(new BufferedOutputStream(outputStream))
+                        .setCodec(codec)
+                        .setRecordName(recordName)) {
+                    readers.get(0).read(avroOutput);
+                }
+            });
+        }
+
+        if ("pgcopy".equals(format)) {
+            return pipelined(chunkSize, chunkCount, outputStream -> {
+                try (PgCopyOutput pgCopyOutput = new PgCopyOutput(outputStream)) {
+                    readers.get(0).read(pgCopyOutput);
+                    pgCopyOutput.end();
+                }
+            });
+        }
+
+        return pipelined(chunkSize, chunkCount, outputStream -> {
+            try (Writer writer = new Utf8Output(outputStream, outputBufferSize)
+                    .setFlushBytes(outputFlushBytes.toBytes())
+                    .setFlushInterval(outputFlushInterval)) {
+                final Writer sharedWriter = readers.size() > 1 ? new SharedWriter(writer) : writer;
+                Partitions.runAll(copyExecutor, readers, reader -> {
+                    try (CsvOutput csvOutput = createCsvOutput(sharedWriter, allParams)) {
+                        reader.read(csvOutput);
+                    }
+                });
+            }
+        });
+    }
+
+    private void addPredicate(List<String> predicates, List<Object> parameters,
+                              String predicate, Object[] values, boolean inline) {
+        if (inline) {
+            predicates.add(PgCopyReader.inlineParameters(predicate, values));
+        } else {
+            predicates.add(predicate);
+            parameters.addAll(Arrays.asList(values));
+        }
+    }
+
+    private StreamingResponseBody metered(CopyMeter meter, StreamingResponseBody responseBody) {
         return outputStream -> {
-            final CsvOutput csvOutput = new CsvOutput(
-                    new PrintWriter(new OutputStreamWriter(new BufferedOutputStream(outputStream))))
-                    .setDelimiter(delimiter)
-                    .setEscapeChar(escapeChar)
-                    .setPrintHeader(printHeader)
-                    .setPrintQuotes(printQuotes)
-                    .setQuoteChar(quoteChar);
-
-            reader.read((rs, rowNum) -> {
-                List<Object> fields = new ArrayList<>();
-                int cols = rs.getMetaData().getColumnCount();
-                for (int i = 1; i <= cols; i++) {
-                    fields.add(rs.getObject(i));
+            meter.start();
+            try {
+                responseBody.writeTo(meter.meter(HttpOutputChannel.wrap(outputStream)));
+            } catch (IOException | RuntimeException | Error e) {
+                meter.recordError();
+                throw e;
+            } finally {
+                meter.stop();
+            }
+        };
+    }
+
+    private StreamingResponseBody compressed(Compression compression, int level, StreamingResponseBody responseBody) {
+        if (compression == null) {
+            return responseBody;
+        }
+        return outputStream -> {
+            Compression.CompressedOutputStream compressedOut = compression.wrap(outputStream, level);
+            try {
+                // Encoders close their stream also on failure, which would write the trailing frame
+                responseBody.writeTo(StreamUtils.nonClosing(compressedOut));
+            } catch (IOException | RuntimeException | Error e) {
+                // Only write the trailing frame on success, to not pass off a truncated copy as complete
+                try {
+                    compressedOut.discard();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
                 }
-                return fields;
-            }, csvOutput);
+                throw e;
+            }
+            compressedOut.close();
+        };
+    }
 
-            csvOutput.close();
+    /**
+     * Runs the reading and encoding stage on a separate thread, handing over encoded chunks
+     * through a bounded pipe to the calling thread which writes them to the response.
+     * A chunk size of zero runs both stages on the calling thread.
+     */
+    private StreamingResponseBody pipelined(int chunkSize, int chunkCount, StreamingResponseBody readStage) {
+        if (chunkSize == 0) {
+            return readStage;
+        }
+        return outputStream -> {
+            final ChunkPipe pipe = new ChunkPipe(chunkSize, chunkCount);
+            final Future<?> future = copyExecutor.submit(() -> {
+                try {
+                    readStage.writeTo(pipe.sink());
+                    pipe.complete();
+                } catch (Throwable e) {
+                    pipe.fail(e);
+                }
+            });
+            try {
+                pipe.drainTo(outputStream);
+            } finally {
+                future.cancel(true);
+            }
         };
     }
+
+    private CsvOutput createCsvOutput(Writer writer, Map<String, String> allParams) {
+        return new CsvOutput(writer)
+                .setDelimiter(allParams.getOrDefault("delimiter", ","))
+                .setEscapeChar(allParams.getOrDefault("escapeChar", "\"\""))
+                .setPrintHeader(Boolean.parseBoolean(allParams.getOrDefault("printHeader", "false")))
+                .setPrintQuotes(Boolean.parseBoolean(allParams.getOrDefault("printQuotes", "false")))
+                .setQuoteChar(allParams.getOrDefault("quoteChar", "\""));
+    }
 }
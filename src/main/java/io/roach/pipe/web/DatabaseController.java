@@ -0,0 +1,157 @@
+package io.roach.pipe.web;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.hateoas.Link;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+
+import io.roach.pipe.config.DataSourceFactory;
+import io.roach.pipe.config.DataSourceLease;
+import io.roach.pipe.config.SnapshotRegistry;
+import io.roach.pipe.io.ResourceResolver;
+import io.roach.pipe.io.Snapshot;
+import io.roach.pipe.io.TableInspector;
+
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
+
+/**
+ * Manifest of copies of several tables from the same snapshot of the source, one url per
+ * table to be copied in parallel with any client, or planned further with {@code /plan}.
+ */
+@RestController
+public class DatabaseController {
+    private static final Set<String> DATABASE_PARAMS = new HashSet<>(Arrays.asList(
+            "tables", "schema", "table", "query", "snapshot", "asOfSystemTime"));
+
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    private DataSourceFactory dataSourceFactory;
+
+    @Autowired
+    private SnapshotRegistry snapshotRegistry;
+
+    // Not a GET, since it takes a snapshot holding a source connection until released
+    @PostMapping(value = "/copy-database")
+    public ResponseEntity<DatabaseModel> copyDatabase(@RequestParam Map<String, String> allParams)
+            throws IOException {
+        final String url = allParams.get("url");
+        if (url == null) {
+            throw new BadRequestException("Missing required param [url]");
+        }
+        if (!ResourceResolver.isJdbcUrl(url)) {
+            throw new BadRequestException("Unsupported url: " + url);
+        }
+        if (allParams.containsKey("tables") && allParams.containsKey("schema")) {
+            throw new BadRequestException("Params [tables] and [schema] can't be combined");
+        }
+
+        final List<String> tables;
+        if (allParams.containsKey("tables")) {
+            tables = new ArrayList<>();
+            for (String table : allParams.get("tables").split(",")) {
+                if (!table.trim().isEmpty()) {
+                    tables.add(table.trim());
+                }
+            }
+        } else {
+            try (DataSourceLease lease = acquire(allParams)) {
+                tables = TableInspector.getTableNames(lease.getDataSource(), allParams.get("schema"));
+            }
+        }
+        if (tables.isEmpty()) {
+            throw new BadRequestException("No tables to copy");
+        }
+
+        final Snapshot snapshot;
+        try {
+            snapshot = snapshotRegistry.export(allParams);
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+
+        logger.info("Planned copy of tables {} from snapshot [{}]", tables, snapshot);
+
+        final List<DatabaseModel.Table> tableModels = new ArrayList<>();
+        for (String table : tables) {
+            tableModels.add(new DatabaseModel.Table()
+                    .setTable(table)
+                    .setUrl(tableUrl("/copy", table, snapshot, allParams))
+                    .setPlanUrl(tableUrl("/plan", table, snapshot, allParams)));
+        }
+
+        DatabaseModel database = new DatabaseModel()
+                .setSnapshot(snapshot.getId())
+                .setSnapshotParam(snapshot.getParamName())
+                .setTables(tableModels);
+
+        database.add(Link.of(ServletUriComponentsBuilder.fromCurrentRequest()
+                .build()
+                .toUriString())
+                .withSelfRel());
+
+        if (snapshotRegistry.get(snapshot.getId()) != null) {
+            database.add(linkTo(methodOn(DatabaseController.class)
+                    .releaseSnapshot(snapshot.getId()))
+                    .withRel(LinkRels.SNAPSHOT_REL));
+        }
+
+        database.add(linkTo(methodOn(CopyController.class)
+                .downloadResource(Collections.emptyMap(), null, null))
+                .withRel(LinkRels.COPY_REL));
+
+        return new ResponseEntity<>(database, HttpStatus.OK);
+    }
+
+    /**
+     * Releases an exported snapshot once all tables are copied, rather than at the idle timeout.
+     */
+    @DeleteMapping(value = "/copy-database/{snapshot}")
+    public ResponseEntity<Void> releaseSnapshot(@PathVariable("snapshot") String snapshot) {
+        if (!snapshotRegistry.release(snapshot)) {
+            throw new NotFoundException("Snapshot not found or released: " + snapshot);
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    private DataSourceLease acquire(Map<String, String> allParams) {
+        try {
+            return dataSourceFactory.acquire(allParams);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+    }
+
+    private String tableUrl(String path, String table, Snapshot snapshot, Map<String, String> allParams) {
+        UriComponentsBuilder builder = ServletUriComponentsBuilder.fromCurrentContextPath().path(path);
+        allParams.forEach((k, v) -> {
+            if (!DATABASE_PARAMS.contains(k)) {
+                builder.queryParam(k, UriUtils.encodeQueryParam(v, StandardCharsets.UTF_8));
+            }
+        });
+        builder.queryParam("table", UriUtils.encodeQueryParam(table, StandardCharsets.UTF_8));
+        builder.queryParam(snapshot.getParamName(), UriUtils.encodeQueryParam(snapshot.getId(), StandardCharsets.UTF_8));
+        return builder.build(true).toUriString();
+    }
+}
@@ -0,0 +1,79 @@
+package io.roach.pipe.web;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.hateoas.RepresentationModel;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+@JsonPropertyOrder({"links"})
+public class DatabaseModel extends RepresentationModel<DatabaseModel> {
+    public static class Table {
+        private String table;
+
+        private String url;
+
+        private String planUrl;
+
+        public String getTable() {
+            return table;
+        }
+
+        public Table setTable(String table) {
+            this.table = table;
+            return this;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public Table setUrl(String url) {
+            this.url = url;
+            return this;
+        }
+
+        public String getPlanUrl() {
+            return planUrl;
+        }
+
+        public Table setPlanUrl(String planUrl) {
+            this.planUrl = planUrl;
+            return this;
+        }
+    }
+
+    private String snapshot;
+
+    private String snapshotParam;
+
+    private List<Table> tables = new ArrayList<>();
+
+    public String getSnapshot() {
+        return snapshot;
+    }
+
+    public DatabaseModel setSnapshot(String snapshot) {
+        this.snapshot = snapshot;
+        return this;
+    }
+
+    public String getSnapshotParam() {
+        return snapshotParam;
+    }
+
+    public DatabaseModel setSnapshotParam(String snapshotParam) {
+        this.snapshotParam = snapshotParam;
+        return this;
+    }
+
+    public List<Table> getTables() {
+        return tables;
+    }
+
+    public DatabaseModel setTables(List<Table> tables) {
+        this.tables = tables;
+        return this;
+    }
+}
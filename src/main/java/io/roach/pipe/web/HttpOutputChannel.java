@@ -0,0 +1,45 @@
+package io.roach.pipe.web;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import org.eclipse.jetty.server.HttpOutput;
+
+/**
+ * Exposes Jetty's response output as a channel, which writes direct buffers
+ * to the socket as is rather than copying them through a heap buffer.
+ */
+class HttpOutputChannel extends FilterOutputStream implements WritableByteChannel {
+    static OutputStream wrap(OutputStream outputStream) {
+        return outputStream instanceof HttpOutput
+                ? new HttpOutputChannel((HttpOutput) outputStream)
+                : outputStream;
+    }
+
+    private final HttpOutput httpOutput;
+
+    private HttpOutputChannel(HttpOutput httpOutput) {
+        super(httpOutput);
+        this.httpOutput = httpOutput;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        httpOutput.write(b, off, len);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int len = src.remaining();
+        httpOutput.write(src);
+        return len;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !httpOutput.isClosed();
+    }
+}
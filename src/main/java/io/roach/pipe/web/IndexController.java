@@ -33,9 +33,21 @@ public class IndexController {
                 .withSelfRel());
 
         index.add(linkTo(methodOn(CopyController.class)
-                .downloadResource(Collections.emptyMap()))
+                .downloadResource(Collections.emptyMap(), null, null))
                 .withRel(LinkRels.COPY_REL));
 
+        index.add(linkTo(methodOn(PlanController.class)
+                .plan(Collections.emptyMap()))
+                .withRel(LinkRels.PLAN_REL));
+
+        index.add(linkTo(methodOn(DatabaseController.class)
+                .copyDatabase(Collections.emptyMap()))
+                .withRel(LinkRels.DATABASE_REL));
+
+        index.add(linkTo(methodOn(PushController.class)
+                .listJobs())
+                .withRel(LinkRels.PUSH_REL));
+
         return new ResponseEntity<>(index, HttpStatus.OK);
     }
 }
@@ -3,6 +3,14 @@ package io.roach.pipe.web;
 public abstract class LinkRels {
     public static final String COPY_REL = "copy";
 
+    public static final String PLAN_REL = "plan";
+
+    public static final String DATABASE_REL = "copy-database";
+
+    public static final String SNAPSHOT_REL = "snapshot";
+
+    public static final String PUSH_REL = "push";
+
     public static final String ACTUATOR_REL = "actuator";
 
     // IANA standard link relations:
@@ -0,0 +1,64 @@
+package io.roach.pipe.web;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+
+import org.springframework.core.task.AsyncTaskExecutor;
+
+/**
+ * Reads the partitions of a copy or push concurrently, a task per partition reader.
+ */
+abstract class Partitions {
+    @FunctionalInterface
+    interface PartitionTask<T> {
+        void run(T reader) throws IOException;
+    }
+
+    private Partitions() {
+    }
+
+    /**
+     * Runs the task for each reader on the executor, or on the calling thread if there is
+     * just one, and waits for all to complete. The first failure cancels the other tasks.
+     */
+    static <T> void runAll(AsyncTaskExecutor executor, List<T> readers, PartitionTask<T> task)
+            throws IOException {
+        if (readers.size() == 1) {
+            task.run(readers.get(0));
+            return;
+        }
+
+        // Takes the tasks as they complete, so that a failure is seen while others still run
+        final CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+        final List<Future<Void>> futures = new ArrayList<>();
+        try {
+            for (T reader : readers) {
+                futures.add(completionService.submit(() -> {
+                    task.run(reader);
+                    return null;
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                completionService.take().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading partitions", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Partition read failed", e.getCause());
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+}
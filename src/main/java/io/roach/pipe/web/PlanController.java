@@ -0,0 +1,216 @@
+package io.roach.pipe.web;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.hateoas.Link;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+
+import io.roach.pipe.config.DataSourceFactory;
+import io.roach.pipe.config.DataSourceLease;
+import io.roach.pipe.io.Compression;
+import io.roach.pipe.io.KeyRange;
+import io.roach.pipe.io.KeyRangeSplitter;
+import io.roach.pipe.io.ResourceResolver;
+import io.roach.pipe.io.TableInspector;
+
+import static io.roach.pipe.web.RequestParams.toNumber;
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
+
+@RestController
+public class PlanController {
+    private static final int MAX_PARTITIONS = 256;
+
+    private static final Set<String> PLAN_PARAMS = new HashSet<>(Arrays.asList(
+            "partitions", "partition", "rowsPerPartition", "splitColumn", "lowerBound", "upperBound"));
+
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    private DataSourceFactory dataSourceFactory;
+
+    @GetMapping(value = "/plan")
+    public ResponseEntity<PlanModel> plan(@RequestParam Map<String, String> allParams) throws IOException {
+        final String url = allParams.get("url");
+        if (url == null) {
+            throw new BadRequestException("Missing required param [url]");
+        }
+        if (!ResourceResolver.isJdbcUrl(url)) {
+            throw new BadRequestException("Unsupported url: " + url);
+        }
+        final String table = allParams.get("table");
+        if (table == null) {
+            throw new BadRequestException("Missing required param [table]");
+        }
+        final Compression compression;
+        try {
+            compression = allParams.containsKey("compression")
+                    ? Compression.fromName(allParams.get("compression"))
+                    : null;
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+        if (compression != null && compression != Compression.GZIP) {
+            throw new BadRequestException("IMPORT only supports compression [gzip]");
+        }
+        if ("pgcopy".equals(allParams.get("format"))) {
+            throw new BadRequestException("IMPORT doesn't support format [pgcopy], load it with COPY FROM STDIN");
+        }
+
+        try (DataSourceLease lease = acquire(allParams)) {
+            return plan(allParams, table, compression, lease.getDataSource());
+        }
+    }
+
+    private DataSourceLease acquire(Map<String, String> allParams) {
+        try {
+            return dataSourceFactory.acquire(allParams);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+    }
+
+    private ResponseEntity<PlanModel> plan(Map<String, String> allParams, String table, Compression compression,
+                                           DataSource dataSource) throws IOException {
+        final TableInspector inspector = new TableInspector(dataSource, table);
+
+        final long estimatedRows = inspector.estimateRowCount();
+        final int rowsPerPartition = toNumber(allParams.getOrDefault("rowsPerPartition", "1_000_000"));
+        if (rowsPerPartition < 1) {
+            throw new BadRequestException("Param [rowsPerPartition] must be > 0");
+        }
+        final int partitions = allParams.containsKey("partitions")
+                ? toNumber(allParams.get("partitions"))
+                : (int) Math.min(MAX_PARTITIONS, Math.max(1, (estimatedRows + rowsPerPartition - 1) / rowsPerPartition));
+        if (partitions < 1 || partitions > MAX_PARTITIONS) {
+            throw new BadRequestException("Param [partitions] must be > 0 and <= " + MAX_PARTITIONS);
+        }
+
+        String splitColumn = allParams.get("splitColumn");
+        if (splitColumn == null) {
+            List<String> primaryKey = inspector.getPrimaryKey();
+            splitColumn = primaryKey.isEmpty() ? null : primaryKey.get(0);
+        }
+        if (splitColumn != null && !inspector.isIntegerColumn(splitColumn)) {
+            logger.warn("Split column [{}] of table [{}] is not an integer type, using a single partition",
+                    splitColumn, table);
+            splitColumn = null;
+        }
+
+        List<KeyRange> keyRanges = Collections.singletonList(new KeyRange(null, null));
+        if (splitColumn != null && partitions > 1) {
+            List<Long> histogramBounds = inspector.getHistogramBounds(splitColumn);
+            keyRanges = histogramBounds.size() > 1
+                    ? KeyRange.split(histogramBounds, partitions)
+                    : new KeyRangeSplitter()
+                    .setDataSource(dataSource)
+                    .setFrom(table)
+                    .setSplitColumn(splitColumn)
+                    .split(partitions);
+        }
+
+        logger.info("Planned copy of table [{}] with ~{} rows in key ranges {} on [{}]",
+                table, estimatedRows, keyRanges, splitColumn);
+
+        List<String> urls = new ArrayList<>();
+        for (KeyRange keyRange : keyRanges) {
+            UriComponentsBuilder builder = ServletUriComponentsBuilder.fromCurrentContextPath().path("/copy");
+            allParams.forEach((k, v) -> {
+                if (!PLAN_PARAMS.contains(k)) {
+                    builder.queryParam(k, UriUtils.encodeQueryParam(v, StandardCharsets.UTF_8));
+                }
+            });
+            if (!keyRange.isUnbounded()) {
+                builder.queryParam("splitColumn", UriUtils.encodeQueryParam(splitColumn, StandardCharsets.UTF_8));
+                if (keyRange.getLowerBound() != null) {
+                    builder.queryParam("lowerBound", keyRange.getLowerBound());
+                }
+                if (keyRange.getUpperBound() != null) {
+                    builder.queryParam("upperBound", keyRange.getUpperBound());
+                }
+            }
+            urls.add(builder.build(true).toUriString());
+        }
+
+        PlanModel plan = new PlanModel()
+                .setTable(table)
+                .setSplitColumn(splitColumn)
+                .setEstimatedRows(estimatedRows)
+                .setUrls(urls)
+                .setImportStatement(importStatement(table, inspector.getColumnNames(), urls, compression, allParams));
+
+        plan.add(Link.of(ServletUriComponentsBuilder.fromCurrentRequest()
+                .build()
+                .toUriString())
+                .withSelfRel());
+
+        plan.add(linkTo(methodOn(CopyController.class)
+                .downloadResource(Collections.emptyMap(), null, null))
+                .withRel(LinkRels.COPY_REL));
+
+        return new ResponseEntity<>(plan, HttpStatus.OK);
+    }
+
+    // Quoted for CockroachDB, so that mixed case names and reserved words match as is
+    private static String quoteColumns(List<String> columns) {
+        final List<String> quoted = new ArrayList<>();
+        for (String name : columns) {
+            quoted.add("\"" + name.replace("\"", "\"\"") + "\"");
+        }
+        return String.join(", ", quoted);
+    }
+
+    private String importStatement(String table, List<String> columns, List<String> urls,
+                                   Compression compression, Map<String, String> allParams) {
+        StringBuilder sb = new StringBuilder()
+                .append("IMPORT INTO ")
+                .append(table)
+                .append("(")
+                .append(quoteColumns(columns))
+                .append("avro".equals(allParams.get("format")) ? ") AVRO DATA (\n" : ") CSV DATA (\n");
+        for (int i = 0; i < urls.size(); i++) {
+            sb.append("    '").append(urls.get(i).replace("'", "''")).append("'");
+            sb.append(i < urls.size() - 1 ? ",\n" : "\n");
+        }
+        sb.append(")");
+
+        List<String> options = new ArrayList<>();
+        if (!"avro".equals(allParams.get("format"))) {
+            String delimiter = allParams.getOrDefault("delimiter", ",");
+            if (!",".equals(delimiter)) {
+                options.add("delimiter = '" + delimiter.replace("'", "''") + "'");
+            }
+            if (Boolean.parseBoolean(allParams.getOrDefault("printHeader", "false"))) {
+                options.add("skip = '1'");
+            }
+        }
+        if (compression != null) {
+            options.add("decompress = '" + compression.getName() + "'");
+        }
+        if (!options.isEmpty()) {
+            sb.append(" WITH ").append(String.join(", ", options));
+        }
+
+        return sb.append(";").toString();
+    }
+}
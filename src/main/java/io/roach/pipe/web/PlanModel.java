@@ -0,0 +1,70 @@
+package io.roach.pipe.web;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.hateoas.RepresentationModel;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+@JsonPropertyOrder({"links"})
+public class PlanModel extends RepresentationModel<PlanModel> {
+    private String table;
+
+    private String splitColumn;
+
+    private long estimatedRows;
+
+    private List<String> urls = new ArrayList<>();
+
+    private String importStatement;
+
+    public String getTable() {
+        return table;
+    }
+
+    public PlanModel setTable(String table) {
+        this.table = table;
+        return this;
+    }
+
+    public String getSplitColumn() {
+        return splitColumn;
+    }
+
+    public PlanModel setSplitColumn(String splitColumn) {
+        this.splitColumn = splitColumn;
+        return this;
+    }
+
+    public long getEstimatedRows() {
+        return estimatedRows;
+    }
+
+    public PlanModel setEstimatedRows(long estimatedRows) {
+        this.estimatedRows = estimatedRows;
+        return this;
+    }
+
+    public int getPartitions() {
+        return urls.size();
+    }
+
+    public List<String> getUrls() {
+        return urls;
+    }
+
+    public PlanModel setUrls(List<String> urls) {
+        this.urls = urls;
+        return this;
+    }
+
+    public String getImportStatement() {
+        return importStatement;
+    }
+
+    public PlanModel setImportStatement(String importStatement) {
+        this.importStatement = importStatement;
+        return this;
+    }
+}
@@ -0,0 +1,377 @@
+package io.roach.pipe.web;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.hateoas.CollectionModel;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.roach.pipe.config.DataSourceFactory;
+import io.roach.pipe.config.DataSourceLease;
+import io.roach.pipe.config.PushJobRegistry;
+import io.roach.pipe.config.SnapshotRegistry;
+import io.roach.pipe.io.CopyMeter;
+import io.roach.pipe.io.JdbcBatchWriter;
+import io.roach.pipe.io.JdbcCursorReader;
+import io.roach.pipe.io.JdbcDialect;
+import io.roach.pipe.io.KeyRange;
+import io.roach.pipe.io.KeyRangeSplitter;
+import io.roach.pipe.io.PushJob;
+import io.roach.pipe.io.ResourceResolver;
+import io.roach.pipe.io.Snapshot;
+
+import static io.roach.pipe.web.RequestParams.toNumber;
+import static io.roach.pipe.web.RequestParams.toSnapshot;
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
+
+/**
+ * Pushes a source table or query straight into a target table through JDBC, as a job
+ * running in the background, rather than have the target pull CSV with IMPORT. Unlike
+ * IMPORT, the target table stays online.
+ */
+@RestController
+public class PushController {
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    private DataSourceFactory dataSourceFactory;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    @Qualifier("copyExecutor")
+    private AsyncTaskExecutor copyExecutor;
+
+    @Autowired
+    private SnapshotRegistry snapshotRegistry;
+
+    @Autowired
+    private PushJobRegistry pushJobRegistry;
+
+    @Value("${pipe.push.batch-size}")
+    private int defaultBatchSize;
+
+    @Value("${pipe.push.writers}")
+    private int defaultWriters;
+
+    @Value("${pipe.push.max-retries}")
+    private int defaultMaxRetries;
+
+    /**
+     * Starts a push once connections to both the source and the target are admitted,
+     * queueing meanwhile.
+     */
+    @PostMapping(value = "/push")
+    public ResponseEntity<PushModel> push(@RequestParam Map<String, String> allParams,
+                                          HttpServletRequest request) {
+        final String url = allParams.get("url");
+        final String targetUrl = allParams.get("targetUrl");
+        if (url == null || targetUrl == null) {
+            throw new BadRequestException("Missing required params [url] and [targetUrl]");
+        }
+        if (!ResourceResolver.isJdbcUrl(url)) {
+            throw new BadRequestException("Unsupported url: " + url);
+        }
+        if (!ResourceResolver.isJdbcUrl(targetUrl)) {
+            throw new BadRequestException("Unsupported targetUrl: " + targetUrl);
+        }
+
+        final String query;
+        final String from;
+        if (allParams.containsKey("query")) {
+            query = allParams.get("query");
+            from = "(" + query + ") q";
+        } else {
+            final String table = allParams.get("table");
+            if (table == null) {
+                throw new BadRequestException("Missing both [table] and [query]");
+            }
+            query = "select * from " + table;
+            from = table;
+        }
+        final String targetTable = allParams.getOrDefault("targetTable", allParams.get("table"));
+        if (targetTable == null) {
+            throw new BadRequestException("Missing param [targetTable] required by [query]");
+        }
+
+        final JdbcBatchWriter.Method method;
+        try {
+            method = JdbcBatchWriter.Method.valueOf(allParams.getOrDefault("method", "insert").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Unsupported method: " + allParams.get("method"));
+        }
+        if (method == JdbcBatchWriter.Method.COPY && JdbcDialect.fromUrl(targetUrl) != JdbcDialect.POSTGRESQL) {
+            throw new BadRequestException("Method [copy] is only supported for PostgreSQL and CockroachDB targets");
+        }
+
+        final int batchSize = toNumber(allParams.getOrDefault("batchSize", String.valueOf(defaultBatchSize)));
+        final int writers = toNumber(allParams.getOrDefault("writers", String.valueOf(defaultWriters)));
+        final int maxRetries = toNumber(allParams.getOrDefault("maxRetries", String.valueOf(defaultMaxRetries)));
+        final int fetchSize = toNumber(allParams.getOrDefault("fetchSize", "256"));
+        final int partitions = toNumber(allParams.getOrDefault("partitions", "1"));
+        final String splitColumn = allParams.get("splitColumn");
+        if (batchSize < 1 || writers < 1 || maxRetries < 0) {
+            throw new BadRequestException("Params [batchSize] and [writers] must be > 0 and [maxRetries] >= 0");
+        }
+        if (partitions < 1) {
+            throw new BadRequestException("Param [partitions] must be > 0");
+        }
+        if (partitions > 1 && splitColumn == null) {
+            throw new BadRequestException("Missing param [splitColumn] required by [partitions]");
+        }
+
+        final Snapshot snapshot = toSnapshot(allParams, snapshotRegistry);
+        // Partitions read in transactions of their own, which only see the same rows if
+        // reading from the same point in time
+        if (partitions > 1 && (snapshot == null || snapshot.getId().startsWith("-"))) {
+            throw new BadRequestException("Param [partitions] requires [snapshot] or an absolute "
+                    + "[asOfSystemTime] for a consistent push");
+        }
+
+        final Map<String, String> targetParams = new HashMap<>();
+        targetParams.put("url", targetUrl);
+        targetParams.put("user", allParams.get("targetUser"));
+        targetParams.put("password", allParams.getOrDefault("targetPassword", ""));
+        // Raises the max size of the target pool to the number of writers if needed
+        targetParams.put("poolSize", allParams.getOrDefault("targetPoolSize", String.valueOf(writers)));
+
+        final PushJob job = new PushJob(dataSourceFactory.toSourceName(allParams),
+                dataSourceFactory.toSourceName(targetParams), targetTable);
+
+        // Partitions are read concurrently on a connection each
+        final CompletableFuture<DataSourceLease> sourceLease;
+        final CompletableFuture<DataSourceLease> targetLease;
+        if (dataSourceFactory.isSamePool(allParams, targetParams)) {
+            // One lease for both, or each could hold connections the other waits for
+            final Map<String, String> params = new HashMap<>(allParams);
+            params.putIfAbsent("poolSize", String.valueOf(partitions + writers));
+            sourceLease = acquire(params, partitions + writers, request);
+            targetLease = sourceLease;
+        } else if (dataSourceFactory.comparePools(allParams, targetParams) < 0) {
+            // Leased one after the other in a global order of pools, or pushes in opposite
+            // directions could each hold the connections the other waits for
+            sourceLease = acquire(allParams, partitions, request);
+            targetLease = acquireAfter(sourceLease, targetParams, writers, request);
+        } else {
+            targetLease = acquire(targetParams, writers, request);
+            sourceLease = acquireAfter(targetLease, allParams, partitions, request);
+        }
+        job.getCancellation().register(() -> {
+            release(sourceLease);
+            release(targetLease);
+        });
+        pushJobRegistry.register(job);
+
+        CompletableFuture.allOf(sourceLease, targetLease).whenCompleteAsync((v, ex) -> {
+            if (ex != null) {
+                release(sourceLease);
+                release(targetLease);
+                job.fail(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+                return;
+            }
+            try (DataSourceLease source = sourceLease.join();
+                 DataSourceLease target = targetLease.join()) {
+                final JdbcBatchWriter writer = new JdbcBatchWriter()
+                        .setDataSource(target.getDataSource())
+                        .setExecutor(copyExecutor)
+                        .setTable(targetTable)
+                        .setMethod(method)
+                        .setBatchSize(batchSize)
+                        .setWriters(writers)
+                        .setMaxRetries(maxRetries)
+                        .setCancellation(job.getCancellation());
+                if (!job.start(writer)) {
+                    job.fail(new CancellationException());
+                    return;
+                }
+
+                logger.info("Pushing [{}] from [{}] into [{}] of [{}] with {} writers in batches of {} rows by {}",
+                        query, source.getDatabaseVersion(), targetTable, target.getDatabaseVersion(),
+                        writers, batchSize, method);
+
+                final CopyMeter meter = new CopyMeter(meterRegistry, source.getSourceName(), targetTable);
+                meter.start();
+                try {
+                    final List<JdbcCursorReader> readers = new ArrayList<>();
+                    for (KeyRange keyRange : split(source.getDataSource(), from, splitColumn, partitions, snapshot)) {
+                        readers.add(new JdbcCursorReader()
+                                .setDataSource(source.getDataSource())
+                                .setDialect(JdbcDialect.fromUrl(url))
+                                .setQuery(keyRange.isUnbounded() ? query
+                                        : "select * from " + from + " where " + keyRange.toPredicate(splitColumn))
+                                .setParameters(keyRange.toParameters())
+                                .setFetchSize(fetchSize)
+                                .setMeter(meter)
+                                .setCancellation(job.getCancellation())
+                                .setSnapshot(snapshot));
+                    }
+                    Partitions.runAll(copyExecutor, readers, reader -> {
+                        JdbcBatchWriter.Batcher batcher = writer.batcher();
+                        reader.read(batcher);
+                        batcher.flush();
+                    });
+                    writer.close();
+                    job.complete();
+                    logger.info("Pushed {} rows into [{}] with {} retries",
+                            writer.getRowsWritten(), targetTable, writer.getRetries());
+                } catch (Throwable e) {
+                    // The first error of the writers, if any, is the cause of any reader error
+                    final Throwable cause = writer.getFailure() != null ? writer.getFailure() : e;
+                    job.getCancellation().cancel();
+                    try {
+                        writer.close();
+                    } catch (IOException suppressed) {
+                        // Already failed
+                    }
+                    meter.recordError();
+                    job.fail(cause);
+                    logger.warn("Push into [{}] ended after {} rows: {}",
+                            targetTable, writer.getRowsWritten(), cause.toString());
+                } finally {
+                    meter.stop();
+                }
+            }
+        }, copyExecutor).exceptionally(ex -> {
+            // Also reached if a lease failed, which was handled above, or else the
+            // executor rejected the callback and the admitted leases are still open
+            release(sourceLease);
+            release(targetLease);
+            job.fail(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+            return null;
+        });
+
+        final PushModel model = toModel(job);
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .location(model.getRequiredLink("self").toUri())
+                .body(model);
+    }
+
+    @GetMapping(value = "/push")
+    public ResponseEntity<CollectionModel<PushModel>> listJobs() {
+        final List<PushModel> models = new ArrayList<>();
+        pushJobRegistry.getAll().forEach(job -> models.add(toModel(job)));
+        return ResponseEntity.ok(CollectionModel.of(models)
+                .add(linkTo(methodOn(PushController.class).listJobs()).withSelfRel()));
+    }
+
+    @GetMapping(value = "/push/{id}")
+    public ResponseEntity<PushModel> getJob(@PathVariable("id") String id) {
+        final PushJob job = pushJobRegistry.get(id);
+        if (job == null) {
+            throw new NotFoundException("Push job not found: " + id);
+        }
+        return ResponseEntity.ok(toModel(job));
+    }
+
+    /**
+     * Cancels the job if not yet ended, and removes it.
+     */
+    @DeleteMapping(value = "/push/{id}")
+    public ResponseEntity<Void> removeJob(@PathVariable("id") String id) {
+        if (!pushJobRegistry.remove(id)) {
+            throw new NotFoundException("Push job not found: " + id);
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    private PushModel toModel(PushJob job) {
+        return PushModel.of(job)
+                .add(linkTo(methodOn(PushController.class).getJob(job.getId())).withSelfRel());
+    }
+
+    private CompletableFuture<DataSourceLease> acquire(Map<String, String> params, int connections,
+                                                       HttpServletRequest request) {
+        try {
+            return dataSourceFactory.acquire(params, connections, request.getRemoteAddr());
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+    }
+
+    /**
+     * Leases the second pool of a push once the first is admitted. Cancelling the lease
+     * also drops the request from the queue of the second pool.
+     */
+    private CompletableFuture<DataSourceLease> acquireAfter(CompletableFuture<DataSourceLease> first,
+                                                            Map<String, String> params, int connections,
+                                                            HttpServletRequest request) {
+        final String client = request.getRemoteAddr();
+        final CompletableFuture<DataSourceLease> lease = new CompletableFuture<>();
+        first.whenComplete((admitted, ex) -> {
+            if (ex != null) {
+                lease.completeExceptionally(ex);
+                return;
+            }
+            final CompletableFuture<DataSourceLease> queued;
+            try {
+                queued = dataSourceFactory.acquire(params, connections, client);
+            } catch (RuntimeException e) {
+                lease.completeExceptionally(e);
+                return;
+            }
+            lease.whenComplete((v, e) -> {
+                if (lease.isCancelled()) {
+                    release(queued);
+                }
+            });
+            queued.whenComplete((queuedLease, e) -> {
+                if (e != null) {
+                    lease.completeExceptionally(e);
+                } else if (!lease.complete(queuedLease)) {
+                    queuedLease.close();
+                }
+            });
+        });
+        return lease;
+    }
+
+    // Drops a queued lease request, or closes the lease if admitted
+    private static void release(CompletableFuture<DataSourceLease> lease) {
+        if (!lease.cancel(false)) {
+            lease.thenAccept(DataSourceLease::close);
+        }
+    }
+
+    /**
+     * Splits before any rows are read, so that a split column which is not an integer
+     * fails the job before writing into the target.
+     */
+    private List<KeyRange> split(DataSource dataSource, String from, String splitColumn, int partitions,
+                                 Snapshot snapshot) {
+        if (partitions == 1) {
+            return Collections.singletonList(new KeyRange(null, null));
+        }
+        return new KeyRangeSplitter()
+                .setDataSource(dataSource)
+                .setFrom(from)
+                .setSplitColumn(splitColumn)
+                .setSnapshot(snapshot)
+                .split(partitions);
+    }
+}
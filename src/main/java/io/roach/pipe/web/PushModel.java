@@ -0,0 +1,162 @@
+package io.roach.pipe.web;
+
+import java.time.Instant;
+
+import org.springframework.hateoas.RepresentationModel;
+import org.springframework.hateoas.server.core.Relation;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import io.roach.pipe.io.PushJob;
+
+@JsonPropertyOrder({"links"})
+@Relation(collectionRelation = "jobs")
+public class PushModel extends RepresentationModel<PushModel> {
+    private String id;
+
+    private PushJob.Status status;
+
+    private String source;
+
+    private String target;
+
+    private String table;
+
+    private long rowsRead;
+
+    private long rowsWritten;
+
+    private long retries;
+
+    private String error;
+
+    private Instant createTime;
+
+    private Instant startTime;
+
+    private Instant endTime;
+
+    public static PushModel of(PushJob job) {
+        return new PushModel()
+                .setId(job.getId())
+                .setStatus(job.getStatus())
+                .setSource(job.getSource())
+                .setTarget(job.getTarget())
+                .setTable(job.getTable())
+                .setRowsRead(job.getRowsRead())
+                .setRowsWritten(job.getRowsWritten())
+                .setRetries(job.getRetries())
+                .setError(job.getError())
+                .setCreateTime(job.getCreateTime())
+                .setStartTime(job.getStartTime())
+                .setEndTime(job.getEndTime());
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public PushModel setId(String id) {
+        this.id = id;
+        return this;
+    }
+
+    public PushJob.Status getStatus() {
+        return status;
+    }
+
+    public PushModel setStatus(PushJob.Status status) {
+        this.status = status;
+        return this;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public PushModel setSource(String source) {
+        this.source = source;
+        return this;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public PushModel setTarget(String target) {
+        this.target = target;
+        return this;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public PushModel setTable(String table) {
+        this.table = table;
+        return this;
+    }
+
+    public long getRowsRead() {
+        return rowsRead;
+    }
+
+    public PushModel setRowsRead(long rowsRead) {
+        this.rowsRead = rowsRead;
+        return this;
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    public PushModel setRowsWritten(long rowsWritten) {
+        this.rowsWritten = rowsWritten;
+        return this;
+    }
+
+    public long getRetries() {
+        return retries;
+    }
+
+    public PushModel setRetries(long retries) {
+        this.retries = retries;
+        return this;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public PushModel setError(String error) {
+        this.error = error;
+        return this;
+    }
+
+    public Instant getCreateTime() {
+        return createTime;
+    }
+
+    public PushModel setCreateTime(Instant createTime) {
+        this.createTime = createTime;
+        return this;
+    }
+
+    public Instant getStartTime() {
+        return startTime;
+    }
+
+    public PushModel setStartTime(Instant startTime) {
+        this.startTime = startTime;
+        return this;
+    }
+
+    public Instant getEndTime() {
+        return endTime;
+    }
+
+    public PushModel setEndTime(Instant endTime) {
+        this.endTime = endTime;
+        return this;
+    }
+}
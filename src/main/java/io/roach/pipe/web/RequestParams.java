@@ -0,0 +1,47 @@
+package io.roach.pipe.web;
+
+import java.util.Map;
+
+import io.roach.pipe.config.SnapshotRegistry;
+import io.roach.pipe.io.Snapshot;
+
+/**
+ * Parsing of request params shared by the endpoints reading from a source.
+ */
+abstract class RequestParams {
+    private RequestParams() {
+    }
+
+    static int toNumber(String numStr) {
+        return Integer.parseInt(numStr.replace("_", ""));
+    }
+
+    static Long toLongOrNull(String numStr) {
+        return numStr != null ? Long.parseLong(numStr.replace("_", "")) : null;
+    }
+
+    /**
+     * @return the snapshot selected by the {@code snapshot} or {@code asOfSystemTime} param,
+     * or null if neither is passed
+     */
+    static Snapshot toSnapshot(Map<String, String> allParams, SnapshotRegistry snapshotRegistry) {
+        if (allParams.containsKey("snapshot") && allParams.containsKey("asOfSystemTime")) {
+            throw new BadRequestException("Params [snapshot] and [asOfSystemTime] can't be combined");
+        }
+        if (allParams.containsKey("asOfSystemTime")) {
+            try {
+                return Snapshot.asOfSystemTime(allParams.get("asOfSystemTime"));
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException(e.getMessage());
+            }
+        }
+        if (allParams.containsKey("snapshot")) {
+            Snapshot snapshot = snapshotRegistry.get(allParams.get("snapshot"));
+            if (snapshot == null) {
+                throw new NotFoundException("Snapshot not found or released: " + allParams.get("snapshot"));
+            }
+            return snapshot;
+        }
+        return null;
+    }
+}
@@ -1,11 +1,13 @@
 package io.roach.pipe.web;
 
 import java.lang.reflect.UndeclaredThrowableException;
+import java.time.Duration;
 
 import javax.servlet.RequestDispatcher;
 import javax.servlet.http.HttpServletRequest;
 
 import org.springframework.beans.TypeMismatchException;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.servlet.error.ErrorController;
 import org.springframework.core.annotation.AnnotationUtils;
 import org.springframework.hateoas.mediatype.problem.Problem;
@@ -32,9 +34,14 @@ import org.springframework.web.servlet.NoHandlerFoundException;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 import org.springframework.web.util.WebUtils;
 
+import io.roach.pipe.config.SourceBusyException;
+
 @RestControllerAdvice
 @Controller
 public class RestErrorController extends ResponseEntityExceptionHandler implements ErrorController {
+    @Value("${pipe.admission.retry-after}")
+    private Duration retryAfter;
+
     @Override
     public String getErrorPath() {
         return "/error";
@@ -232,6 +239,23 @@ public class RestErrorController extends ResponseEntityExceptionHandler implemen
                 .body(problem);
     }
 
+    // 503
+
+    @ExceptionHandler({SourceBusyException.class})
+    public ResponseEntity<Object> handleSourceBusy(SourceBusyException ex, WebRequest request) {
+        logger.warn(ex.getLocalizedMessage());
+
+        Problem problem = Problem.create()
+                .withDetail(ex.getLocalizedMessage())
+                .withStatus(HttpStatus.SERVICE_UNAVAILABLE);
+
+        ResponseEntity<Object> response = wrap(problem);
+        return ResponseEntity.status(response.getStatusCode())
+                .headers(response.getHeaders())
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter.getSeconds()))
+                .body(response.getBody());
+    }
+
     // 500
 
     @ExceptionHandler({Exception.class})
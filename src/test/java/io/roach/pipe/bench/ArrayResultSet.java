@@ -0,0 +1,169 @@
+package io.roach.pipe.bench;
+
+import java.math.BigDecimal;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+
+import io.roach.pipe.test.ResultSets;
+
+/**
+ * In-memory result set over column arrays, with integer columns held as primitives so
+ * that reading them doesn't box or allocate, as with a driver decoding its wire buffer.
+ * Rewound with {@link #beforeFirst()} to be read again.
+ */
+public class ArrayResultSet extends ResultSetStub {
+    private final ResultSetMetaData metaData;
+
+    private final int rowCount;
+
+    // By column then row, longs for integer columns and objects for the others
+    private final long[][] longs;
+
+    private final boolean[][] nulls;
+
+    private final Object[][] objects;
+
+    private int row = -1;
+
+    private boolean wasNull;
+
+    public ArrayResultSet(String[] names, int[] types, List<Object[]> rows) {
+        this.metaData = ResultSets.metaData(names, types);
+        this.rowCount = rows.size();
+        this.longs = new long[types.length][];
+        this.nulls = new boolean[types.length][];
+        this.objects = new Object[types.length][];
+
+        for (int c = 0; c < types.length; c++) {
+            if (isIntegral(types[c])) {
+                longs[c] = new long[rowCount];
+                nulls[c] = new boolean[rowCount];
+                for (int r = 0; r < rowCount; r++) {
+                    Object value = rows.get(r)[c];
+                    if (value != null) {
+                        longs[c][r] = ((Number) value).longValue();
+                    } else {
+                        nulls[c][r] = true;
+                    }
+                }
+            } else {
+                objects[c] = new Object[rowCount];
+                for (int r = 0; r < rowCount; r++) {
+                    objects[c][r] = rows.get(r)[c];
+                }
+            }
+        }
+    }
+
+    public static boolean isIntegral(int type) {
+        switch (type) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private long longValue(int columnIndex) throws SQLException {
+        long[] column = longs[columnIndex - 1];
+        if (column == null) {
+            throw new SQLException("Column " + columnIndex + " is not an integer");
+        }
+        wasNull = nulls[columnIndex - 1][row];
+        return column[row];
+    }
+
+    private Object value(int columnIndex) {
+        Object value;
+        if (longs[columnIndex - 1] != null) {
+            // Boxes, as drivers do
+            value = nulls[columnIndex - 1][row] ? null : longs[columnIndex - 1][row];
+        } else {
+            value = objects[columnIndex - 1][row];
+        }
+        wasNull = value == null;
+        return value;
+    }
+
+    @Override
+    public boolean next() {
+        if (row < rowCount) {
+            row++;
+        }
+        return row < rowCount;
+    }
+
+    @Override
+    public void beforeFirst() {
+        row = -1;
+    }
+
+    @Override
+    public int getRow() {
+        return row < rowCount ? row + 1 : 0;
+    }
+
+    @Override
+    public ResultSetMetaData getMetaData() {
+        return metaData;
+    }
+
+    @Override
+    public boolean wasNull() {
+        return wasNull;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public long getLong(int columnIndex) throws SQLException {
+        return longValue(columnIndex);
+    }
+
+    @Override
+    public int getInt(int columnIndex) throws SQLException {
+        return (int) longValue(columnIndex);
+    }
+
+    @Override
+    public short getShort(int columnIndex) throws SQLException {
+        return (short) longValue(columnIndex);
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        Object value = value(columnIndex);
+        return value != null ? value.toString() : null;
+    }
+
+    @Override
+    public byte[] getBytes(int columnIndex) {
+        return (byte[]) value(columnIndex);
+    }
+
+    @Override
+    public BigDecimal getBigDecimal(int columnIndex) {
+        return (BigDecimal) value(columnIndex);
+    }
+
+    @Override
+    public Object getObject(int columnIndex) {
+        return value(columnIndex);
+    }
+
+    @Override
+    public <T> T getObject(int columnIndex, Class<T> type) throws SQLException {
+        Object value = value(columnIndex);
+        if (value != null && !type.isInstance(value)) {
+            throw unsupported();
+        }
+        return type.cast(value);
+    }
+}
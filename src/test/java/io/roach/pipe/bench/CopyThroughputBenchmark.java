@@ -0,0 +1,201 @@
+package io.roach.pipe.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.web.util.UriUtils;
+
+import io.roach.pipe.AbstractIntegrationTest;
+import io.roach.pipe.Application;
+
+/**
+ * End-to-end throughput of /copy from an embedded H2 database seeded with a TPCC customer
+ * table, driven by concurrent HTTP clients. Reports MB/s, rows/s, p99 time to first byte
+ * and peak heap. Sizing is set in application-benchmark.yml or by system properties:
+ * <pre>
+ * mvn test -DskipTests=false -Dtest=CopyThroughputBenchmark -Dbenchmark.rows=5000000 -Dbenchmark.clients=16
+ * </pre>
+ */
+@SpringBootTest(classes = Application.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles({"benchmark"})
+public class CopyThroughputBenchmark extends AbstractIntegrationTest {
+    private static class Download {
+        long ttfbNanos;
+
+        long bytes;
+
+        long rows;
+    }
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Value("${roach.datasource.url}")
+    private String url;
+
+    @Value("${roach.datasource.username}")
+    private String user;
+
+    @Value("${benchmark.rows}")
+    private long rows;
+
+    @Value("${benchmark.clients}")
+    private int clients;
+
+    @Value("${benchmark.downloads}")
+    private int downloads;
+
+    @Value("${benchmark.params}")
+    private String params;
+
+    @Test
+    @Order(1)
+    public void seedDatabase() {
+        executeScripts("db/tpcc-create.sql");
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+
+        Long count = jdbcTemplate.queryForObject("select count(1) from customer", Long.class);
+        if (count != null && count == rows) {
+            logger.info("Reusing {} seeded customer rows", count);
+            return;
+        }
+
+        logger.info("Seeding {} customer rows", rows);
+        long startTime = System.nanoTime();
+        jdbcTemplate.execute("truncate table customer");
+        jdbcTemplate.update("insert into customer "
+                + "select mod(x, 3000) + 1, mod(x / 3000, 10) + 1, x / 30000, "
+                + "'first' || x, 'OE', 'BAR' || mod(x, 1000), "
+                + "'street 1, ' || mod(x, 997), 'street 2', 'city ' || mod(x, 101), 'NY', '12345' || mod(x, 10000), "
+                + "'555-' || x, dateadd('SECOND', x, timestamp '2021-01-01 00:00:00'), "
+                + "case when mod(x, 10) = 0 then 'BC' else 'GC' end, 50000.00, mod(x, 5000) / 10000.0, "
+                + "-10.00, 10.00, 1, 0, "
+                + "x || ' ' || repeat('lorem ipsum, \"dolor\" sit amet ', 10 + mod(x, 6)) "
+                + "from system_range(0, ?)", rows - 1);
+        logger.info("Seeded {} customer rows in {} s", rows,
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTime));
+    }
+
+    @Test
+    @Order(2)
+    public void concurrentDownloads() throws Exception {
+        final String copyUrl = "http://localhost:" + port + "/copy?url=" + UriUtils.encodeQueryParam(url, "UTF-8")
+                + "&user=" + user + "&password=&table=customer" + params;
+        final boolean csv = !params.contains("format=");
+
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+
+        logger.info("Running {} downloads with {} clients from {}", downloads, clients, copyUrl);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(clients);
+        List<Download> results = new ArrayList<>();
+        long startTime = System.nanoTime();
+        try {
+            List<Future<Download>> futures = new ArrayList<>();
+            for (int i = 0; i < downloads; i++) {
+                futures.add(executorService.submit(() -> download(copyUrl)));
+            }
+            for (Future<Download> future : futures) {
+                results.add(future.get());
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+
+        long totalBytes = 0;
+        List<Long> ttfb = new ArrayList<>();
+        for (Download result : results) {
+            if (csv) {
+                Assertions.assertEquals(rows, result.rows, "Incomplete download");
+            }
+            totalBytes += result.bytes;
+            ttfb.add(result.ttfbNanos);
+        }
+        Collections.sort(ttfb);
+
+        double seconds = elapsedNanos / 1e9;
+        logger.info(String.format("%n"
+                        + "Downloads:      %d (%d clients)%n"
+                        + "Elapsed:        %.2f s%n"
+                        + "Throughput:     %.1f MB/s%n"
+                        + "Rows:           %.0f rows/s%n"
+                        + "TTFB p50:       %.1f ms%n"
+                        + "TTFB p99:       %.1f ms%n"
+                        + "Peak heap:      %.1f MB",
+                downloads, clients, seconds,
+                totalBytes / seconds / (1024 * 1024),
+                rows * downloads / seconds,
+                percentile(ttfb, 0.5) / 1e6,
+                percentile(ttfb, 0.99) / 1e6,
+                peakHeap / (1024.0 * 1024)));
+    }
+
+    private static long percentile(List<Long> sorted, double percentile) {
+        return sorted.get((int) Math.ceil(percentile * sorted.size()) - 1);
+    }
+
+    private Download download(String copyUrl) throws IOException {
+        Download result = new Download();
+        long startTime = System.nanoTime();
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(copyUrl).openConnection();
+        try (InputStream in = connection.getInputStream()) {
+            Assertions.assertEquals(200, connection.getResponseCode());
+            byte[] buffer = new byte[64 * 1024];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                if (result.bytes == 0) {
+                    result.ttfbNanos = System.nanoTime() - startTime;
+                }
+                result.bytes += len;
+                for (int i = 0; i < len; i++) {
+                    if (buffer[i] == '\n') {
+                        result.rows++;
+                    }
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,221 @@
+package io.roach.pipe.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.roach.pipe.io.AvroOutput;
+import io.roach.pipe.io.CsvOutput;
+
+/**
+ * Measures rows per second through the row encoders over synthetic in-memory result
+ * sets of varying width and column types, without a database. The result set holds
+ * integer columns as primitives, so that it doesn't add allocations of its own. Run with the GC profiler
+ * (default in the benchmark profile) to see the allocation rate per row.
+ * <p>
+ * The baseline benchmark only reads every column, which is the cost of the synthetic
+ * result set itself and should be subtracted when comparing encoders.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowEncodingBenchmark {
+    private static final int ROWS = 1024;
+
+    private static final Writer NULL_WRITER = new Writer() {
+        @Override
+        public void write(char[] buffer, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private static final OutputStream NULL_STREAM = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Param({"ints", "decimals", "text", "bytea", "timestamps", "mixed"})
+    public String columnType;
+
+    @Param({"4", "16"})
+    public int width;
+
+    private int[] types;
+
+    private ArrayResultSet rs;
+
+    @Setup
+    public void setup() {
+        String[] shapes = "mixed".equals(columnType)
+                ? new String[] {"ints", "decimals", "text", "bytea", "timestamps"}
+                : new String[] {columnType};
+
+        String[] names = new String[width];
+        types = new int[width];
+        for (int i = 0; i < width; i++) {
+            names[i] = "c" + i;
+            types[i] = toSqlType(shapes[i % shapes.length]);
+        }
+
+        Random random = new Random(42);
+        List<Object[]> rows = new ArrayList<>(ROWS);
+        for (int r = 0; r < ROWS; r++) {
+            Object[] row = new Object[width];
+            for (int i = 0; i < width; i++) {
+                // Every tenth value null
+                row[i] = random.nextInt(10) == 0 ? null : randomValue(types[i], random);
+            }
+            rows.add(row);
+        }
+        rs = new ArrayResultSet(names, types, rows);
+    }
+
+    private static int toSqlType(String shape) {
+        switch (shape) {
+            case "ints":
+                return Types.BIGINT;
+            case "decimals":
+                return Types.DECIMAL;
+            case "text":
+                return Types.VARCHAR;
+            case "bytea":
+                return Types.BINARY;
+            case "timestamps":
+                return Types.TIMESTAMP;
+            default:
+                throw new IllegalArgumentException(shape);
+        }
+    }
+
+    private static Object randomValue(int type, Random random) {
+        switch (type) {
+            case Types.BIGINT:
+                return random.nextLong() >> random.nextInt(63);
+            case Types.DECIMAL:
+                return BigDecimal.valueOf(random.nextInt(1_000_000_00), 2);
+            case Types.VARCHAR:
+                return randomText(random);
+            case Types.BINARY:
+                byte[] bytes = new byte[16 + random.nextInt(240)];
+                random.nextBytes(bytes);
+                return bytes;
+            case Types.TIMESTAMP:
+                return new Timestamp(1_600_000_000_000L + random.nextInt(Integer.MAX_VALUE) * 10L);
+            default:
+                throw new IllegalArgumentException("" + type);
+        }
+    }
+
+    private static String randomText(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int length = 50 + random.nextInt(150);
+        while (sb.length() < length) {
+            for (int i = 2 + random.nextInt(8); i > 0; i--) {
+                sb.append((char) ('a' + random.nextInt(26)));
+            }
+            switch (random.nextInt(12)) {
+                case 0:
+                    sb.append(", ");
+                    break;
+                case 1:
+                    sb.append(" \"quoted\" ");
+                    break;
+                default:
+                    sb.append(' ');
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private ResultSet resultSet() {
+        rs.beforeFirst();
+        return rs;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void baseline(Blackhole blackhole) throws SQLException {
+        ResultSet rs = resultSet();
+        while (rs.next()) {
+            for (int i = 1; i <= width; i++) {
+                if (ArrayResultSet.isIntegral(types[i - 1])) {
+                    blackhole.consume(rs.getLong(i));
+                } else {
+                    blackhole.consume(rs.getObject(i));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void csv() throws SQLException, IOException {
+        ResultSet rs = resultSet();
+        try (CsvOutput csvOutput = new CsvOutput(NULL_WRITER)) {
+            while (rs.next()) {
+                csvOutput.write(rs, rs);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void csvQuoted() throws SQLException, IOException {
+        ResultSet rs = resultSet();
+        try (CsvOutput csvOutput = new CsvOutput(NULL_WRITER).setPrintQuotes(true)) {
+            while (rs.next()) {
+                csvOutput.write(rs, rs);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void avro() throws SQLException, IOException {
+        ResultSet rs = resultSet();
+        try (AvroOutput avroOutput = new AvroOutput(NULL_STREAM).setCodec("null")) {
+            while (rs.next()) {
+                avroOutput.write(rs, rs);
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package io.roach.pipe.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import io.roach.pipe.config.AdmissionQueue;
+import io.roach.pipe.config.SourceBusyException;
+
+public class AdmissionQueueTest {
+    private static class Lease {
+        private final String name;
+
+        private final int connections;
+
+        Lease(String name, int connections) {
+            this.name = name;
+            this.connections = connections;
+        }
+    }
+
+    // Names leases in order of admission
+    private final List<String> admitted = new ArrayList<>();
+
+    private AdmissionQueue<Lease> queue(int connections) {
+        return new AdmissionQueue<>("test", connections, n -> {
+            Lease lease = new Lease("lease-" + admitted.size(), n);
+            admitted.add(lease.name);
+            return lease;
+        });
+    }
+
+    private static void release(AdmissionQueue<Lease> queue, CompletableFuture<Lease> lease) {
+        queue.release(lease.join().connections);
+    }
+
+    @Test
+    public void whenQueued_thenArrivalsDontOvertake() {
+        AdmissionQueue<Lease> queue = queue(2);
+        CompletableFuture<Lease> first = queue.reserve(1, "a", 10);
+        CompletableFuture<Lease> large = queue.reserve(2, "a", 10);
+        Assertions.assertTrue(first.isDone());
+        Assertions.assertFalse(large.isDone());
+
+        // One connection is free but a request is queued
+        CompletableFuture<Lease> small = queue.reserve(1, "b", 10);
+        Assertions.assertFalse(small.isDone());
+        Assertions.assertEquals(1, queue.getFreeConnections());
+
+        release(queue, first);
+        Assertions.assertTrue(large.isDone());
+        Assertions.assertFalse(small.isDone());
+
+        release(queue, large);
+        Assertions.assertTrue(small.isDone());
+    }
+
+    @Test
+    public void whenManyRequestsOfOneClient_thenClientsTakeTurns() {
+        AdmissionQueue<Lease> queue = queue(1);
+        CompletableFuture<Lease> running = queue.reserve(1, "a", 10);
+
+        List<CompletableFuture<Lease>> queued = new ArrayList<>();
+        for (String client : Arrays.asList("a", "a", "a", "b", "b")) {
+            queued.add(queue.reserve(1, client, 10));
+        }
+        List<Integer> order = new ArrayList<>();
+        release(queue, running);
+        while (order.size() < queued.size()) {
+            for (int i = 0; i < queued.size(); i++) {
+                if (queued.get(i).isDone() && !order.contains(i)) {
+                    order.add(i);
+                    release(queue, queued.get(i));
+                    break;
+                }
+            }
+        }
+        // a, b, a, b, a
+        Assertions.assertEquals(Arrays.asList(0, 3, 1, 4, 2), order);
+    }
+
+    @Test
+    public void whenTimedOutWhileQueued_thenSkipped() {
+        AdmissionQueue<Lease> queue = queue(1);
+        CompletableFuture<Lease> running = queue.reserve(1, "a", 10);
+        CompletableFuture<Lease> timedOut = queue.reserve(1, "a", 10);
+        CompletableFuture<Lease> next = queue.reserve(1, "b", 10);
+
+        timedOut.cancel(false);
+        release(queue, running);
+
+        Assertions.assertTrue(next.isDone());
+        Assertions.assertEquals(Arrays.asList("lease-0", "lease-1"), admitted);
+        Assertions.assertEquals(0, queue.getWaiting());
+    }
+
+    @Test
+    public void whenTimedOutWhileAdmitted_thenLeaseReleased() {
+        List<CompletableFuture<Lease>> leases = new ArrayList<>();
+        AdmissionQueue<Lease> queue = new AdmissionQueue<>("test", 1, n -> {
+            // Times out the request between admission and completion
+            if (leases.size() > 1) {
+                leases.get(1).cancel(false);
+            }
+            return new Lease("lease", n);
+        });
+        leases.add(queue.reserve(1, "a", 10));
+        leases.add(queue.reserve(1, "a", 10));
+
+        release(queue, leases.get(0));
+
+        Assertions.assertTrue(leases.get(1).isCancelled());
+        Assertions.assertEquals(1, queue.getFreeConnections());
+        Assertions.assertTrue(queue.isIdle());
+    }
+
+    @Test
+    public void whenQueueFull_thenTurnedAwayUnlessTimedOut() {
+        AdmissionQueue<Lease> queue = queue(1);
+        queue.reserve(1, "a", 1);
+        CompletableFuture<Lease> timedOut = queue.reserve(1, "a", 1);
+        Assertions.assertThrows(SourceBusyException.class, () -> queue.reserve(1, "b", 1));
+
+        timedOut.cancel(false);
+        Assertions.assertFalse(queue.reserve(1, "b", 1).isDone());
+        Assertions.assertEquals(1, queue.getWaiting());
+    }
+
+    @Test
+    public void whenAllReleased_thenIdle() {
+        AdmissionQueue<Lease> queue = queue(2);
+        CompletableFuture<Lease> first = queue.reserve(2, "a", 10);
+        CompletableFuture<Lease> second = queue.reserve(1, "b", 10);
+        Assertions.assertFalse(queue.isIdle());
+
+        release(queue, first);
+        Assertions.assertFalse(queue.isIdle());
+        release(queue, second);
+        Assertions.assertTrue(queue.isIdle());
+        Assertions.assertEquals(2, queue.getFreeConnections());
+    }
+
+    @Test
+    public void whenResized_thenQueuedAdmitted() {
+        AdmissionQueue<Lease> queue = queue(1);
+        queue.reserve(1, "a", 10);
+        CompletableFuture<Lease> queued = queue.reserve(1, "b", 10);
+
+        queue.resize(1);
+        Assertions.assertFalse(queued.isDone());
+        queue.admitQueued();
+        Assertions.assertTrue(queued.isDone());
+    }
+}
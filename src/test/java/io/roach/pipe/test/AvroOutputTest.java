@@ -0,0 +1,42 @@
+package io.roach.pipe.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.sql.ResultSet;
+import java.sql.Types;
+import java.util.Collections;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import io.roach.pipe.io.AvroOutput;
+
+public class AvroOutputTest {
+    @Test
+    public void whenBitString_thenWrittenAsString() throws Exception {
+        ResultSet rs = ResultSets.of(new String[] {"bits", "flag"}, new int[] {Types.BIT, Types.BOOLEAN},
+                Collections.singletonList(new Object[] {"101", true}));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (AvroOutput avroOutput = new AvroOutput(out)) {
+            while (rs.next()) {
+                avroOutput.write(rs, rs);
+            }
+        }
+
+        try (DataFileStream<GenericRecord> in = new DataFileStream<>(
+                new ByteArrayInputStream(out.toByteArray()), new GenericDatumReader<>())) {
+            Schema schema = in.getSchema();
+            Assertions.assertEquals(Schema.Type.STRING, schema.getField("bits").schema().getTypes().get(1).getType());
+            Assertions.assertEquals(Schema.Type.BOOLEAN, schema.getField("flag").schema().getTypes().get(1).getType());
+
+            GenericRecord record = in.next();
+            Assertions.assertEquals("101", record.get("bits").toString());
+            Assertions.assertEquals(true, record.get("flag"));
+            Assertions.assertFalse(in.hasNext());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package io.roach.pipe.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import io.roach.pipe.io.ChunkPipe;
+
+public class ChunkPipeTest {
+    @Test
+    public void whenProducerCompletes_thenAllBytesDrainedInOrder() throws Exception {
+        ChunkPipe pipe = new ChunkPipe(7, 2);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+
+        CompletableFuture<Void> producer = CompletableFuture.runAsync(() -> {
+            try {
+                OutputStream sink = pipe.sink();
+                for (int i = 0; i < 1000; i++) {
+                    byte[] row = ("row " + i + "\n").getBytes();
+                    expected.write(row);
+                    sink.write(row);
+                    sink.write('.');
+                    expected.write('.');
+                }
+                pipe.complete();
+            } catch (IOException e) {
+                pipe.fail(e);
+            }
+        });
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        pipe.drainTo(actual);
+        producer.get();
+        Assertions.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    public void whenProducerFails_thenDrainThrows() {
+        ChunkPipe pipe = new ChunkPipe(16, 1);
+        CompletableFuture.runAsync(() -> pipe.fail(new IllegalStateException("disk on fire")));
+        IllegalStateException e = Assertions.assertThrows(IllegalStateException.class,
+                () -> pipe.drainTo(new ByteArrayOutputStream()));
+        Assertions.assertEquals("disk on fire", e.getMessage());
+    }
+
+    @Test
+    public void whenConsumerFails_thenProducerWriteThrows() throws Exception {
+        ChunkPipe pipe = new ChunkPipe(4, 1);
+
+        CompletableFuture<Throwable> producer = CompletableFuture.supplyAsync(() -> {
+            try {
+                for (; ; ) {
+                    pipe.sink().write(new byte[10]);
+                }
+            } catch (IOException e) {
+                return e;
+            }
+        });
+
+        Assertions.assertThrows(IOException.class, () -> pipe.drainTo(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Connection reset");
+            }
+        }));
+        Assertions.assertEquals("Pipe cancelled by consumer", producer.get().getMessage());
+    }
+}
@@ -0,0 +1,70 @@
+package io.roach.pipe.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.StreamUtils;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+import io.roach.pipe.io.Compression;
+
+public class CompressionTest {
+    private static final byte[] DATA = "a,b,c\n1,2,3\n".getBytes();
+
+    private static class TrackingOutputStream extends ByteArrayOutputStream {
+        private boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static InputStream decompress(Compression compression, byte[] bytes) throws IOException {
+        return compression == Compression.GZIP
+                ? new GZIPInputStream(new ByteArrayInputStream(bytes))
+                : new ZstdInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    @Test
+    public void whenClosed_thenTrailerWritten() throws IOException {
+        for (Compression compression : Compression.values()) {
+            TrackingOutputStream target = new TrackingOutputStream();
+            Compression.CompressedOutputStream out = compression.wrap(target, compression.getDefaultLevel());
+            out.write(DATA);
+            out.close();
+
+            Assertions.assertTrue(target.closed);
+            try (InputStream in = decompress(compression, target.toByteArray())) {
+                Assertions.assertArrayEquals(DATA, StreamUtils.copyToByteArray(in), compression.getName());
+            }
+        }
+    }
+
+    @Test
+    public void whenDiscarded_thenNothingMoreWrittenAndTargetLeftOpen() throws IOException {
+        for (Compression compression : Compression.values()) {
+            TrackingOutputStream target = new TrackingOutputStream();
+            Compression.CompressedOutputStream out = compression.wrap(target, compression.getDefaultLevel());
+            out.write(DATA);
+            out.flush();
+            int flushed = target.size();
+            out.discard();
+
+            Assertions.assertEquals(flushed, target.size(), compression.getName());
+            Assertions.assertFalse(target.closed);
+            // Truncated, so it can't pass as complete
+            Assertions.assertThrows(IOException.class, () -> {
+                try (InputStream in = decompress(compression, target.toByteArray())) {
+                    StreamUtils.copyToByteArray(in);
+                }
+            }, compression.getName());
+        }
+    }
+}
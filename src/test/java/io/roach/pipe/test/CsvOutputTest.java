@@ -0,0 +1,103 @@
+package io.roach.pipe.test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import io.roach.pipe.io.CsvOutput;
+
+public class CsvOutputTest {
+    private static final String NL = System.lineSeparator();
+
+    private String encode(CsvOutput csvOutput, StringWriter out, int[] types, Object... row)
+            throws IOException, SQLException {
+        String[] names = new String[types.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "c" + i;
+        }
+        ResultSet rs = ResultSets.of(names, types, Collections.singletonList(row));
+        while (rs.next()) {
+            csvOutput.write(rs, rs);
+        }
+        csvOutput.close();
+        return out.toString();
+    }
+
+    @Test
+    public void whenPlainValues_thenNoQuoting() throws Exception {
+        StringWriter out = new StringWriter();
+        Assertions.assertEquals("1,abc,,2.5" + NL,
+                encode(new CsvOutput(out), out,
+                        new int[] {Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.DOUBLE},
+                        1, "abc", null, 2.5));
+    }
+
+    @Test
+    public void whenIntegers_thenDigitsWritten() throws Exception {
+        StringWriter out = new StringWriter();
+        Assertions.assertEquals(Long.MIN_VALUE + ",-42,0,," + Long.MAX_VALUE + NL,
+                encode(new CsvOutput(out), out,
+                        new int[] {Types.BIGINT, Types.INTEGER, Types.SMALLINT, Types.BIGINT, Types.BIGINT},
+                        Long.MIN_VALUE, -42, 0, null, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void whenSpecialChars_thenQuotedAndEscaped() throws Exception {
+        StringWriter out = new StringWriter();
+        Assertions.assertEquals("\"a,b\",\"say \"\"hi\"\"\",50%" + NL,
+                encode(new CsvOutput(out), out,
+                        new int[] {Types.VARCHAR, Types.VARCHAR, Types.OTHER},
+                        "a,b", "say \"hi\"", "50%"));
+    }
+
+    @Test
+    public void whenLineTerminator_thenNotQuoted() throws Exception {
+        StringWriter out = new StringWriter();
+        Assertions.assertEquals("a,\nb" + NL,
+                encode(new CsvOutput(out), out, new int[] {Types.VARCHAR}, "a,\nb"));
+    }
+
+    @Test
+    public void whenBytes_thenHexEncoded() throws Exception {
+        StringWriter out = new StringWriter();
+        Assertions.assertEquals("'\\x00ff10','1'" + NL,
+                encode(new CsvOutput(out).setPrintQuotes(true).setQuoteChar("'"), out,
+                        new int[] {Types.BINARY, Types.INTEGER},
+                        new byte[] {0, (byte) 0xff, 0x10}, 1));
+    }
+
+    @Test
+    public void whenCustomOptions_thenApplied() throws Exception {
+        StringWriter out = new StringWriter();
+        CsvOutput csvOutput = new CsvOutput(out)
+                .setDelimiter("|")
+                .setEscapeChar("\\\\\"")
+                .setPrintHeader(true)
+                .setPrintQuotes(true);
+        Assertions.assertEquals("c0|c1|c2" + NL + "\"x\"|\"\"a\\\"b\"\"|" + NL,
+                encode(csvOutput, out, new int[] {Types.VARCHAR, Types.VARCHAR, Types.VARCHAR},
+                        "x", "a\"b", null));
+    }
+
+    @Test
+    public void whenRowsExceedBuffer_thenFlushedOnRowBoundary() throws Exception {
+        StringWriter out = new StringWriter();
+        CsvOutput csvOutput = new CsvOutput(out, 4);
+        ResultSet rs = ResultSets.of(new String[] {"a", "b"}, new int[] {Types.VARCHAR, Types.INTEGER},
+                Arrays.asList(new Object[] {"abcdefgh", 12345}, new Object[] {"z", null}));
+        rs.next();
+        csvOutput.write(rs, rs);
+        Assertions.assertEquals("abcdefgh,12345" + NL, out.toString());
+        rs.next();
+        csvOutput.write(rs, rs);
+        csvOutput.close();
+        Assertions.assertEquals("abcdefgh,12345" + NL + "z," + NL, out.toString());
+    }
+}
@@ -0,0 +1,281 @@
+package io.roach.pipe.test;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import io.roach.pipe.io.Cancellation;
+import io.roach.pipe.io.JdbcBatchWriter;
+import io.roach.pipe.io.PushJob;
+
+public class JdbcBatchWriterTest {
+    private final DriverManagerDataSource h2 = new DriverManagerDataSource("jdbc:h2:mem:push;DB_CLOSE_DELAY=-1");
+
+    private final List<String> statements = Collections.synchronizedList(new ArrayList<>());
+
+    private final AtomicInteger executions = new AtomicInteger();
+
+    @BeforeEach
+    public void setUp() {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(h2);
+        jdbcTemplate.execute("drop all objects");
+        // Quoted in lower case, as PostgreSQL and CockroachDB fold unquoted names
+        jdbcTemplate.execute("create table narrow (\"id\" int primary key, \"order\" varchar(16), \"MixedCase\" int)");
+        StringBuilder columns = new StringBuilder("\"c1\" int primary key");
+        for (int i = 2; i <= 40; i++) {
+            columns.append(", \"c").append(i).append("\" int");
+        }
+        jdbcTemplate.execute("create table wide (" + columns + ")");
+    }
+
+    /**
+     * @return the test database, failing statement executions matching the predicate
+     * with the given SQL state
+     */
+    private DataSource target(IntPredicate failing, String sqlState) {
+        return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {DataSource.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(h2, method, args);
+                    if (!"getConnection".equals(method.getName())) {
+                        return result;
+                    }
+                    Connection connection = (Connection) result;
+                    return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {Connection.class},
+                            (proxy2, method2, args2) -> {
+                                Object result2 = invoke(connection, method2, args2);
+                                if (!"prepareStatement".equals(method2.getName())) {
+                                    return result2;
+                                }
+                                statements.add((String) args2[0]);
+                                PreparedStatement statement = (PreparedStatement) result2;
+                                return Proxy.newProxyInstance(getClass().getClassLoader(),
+                                        new Class[] {PreparedStatement.class},
+                                        (proxy3, method3, args3) -> {
+                                            if ("executeUpdate".equals(method3.getName())
+                                                    && failing.test(executions.incrementAndGet())) {
+                                                throw new SQLException("Injected failure", sqlState);
+                                            }
+                                            return invoke(statement, method3, args3);
+                                        });
+                            });
+                });
+    }
+
+    private static Object invoke(Object target, java.lang.reflect.Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static ResultSet narrowRows(int count, int firstId) {
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            rows.add(new Object[] {firstId + i, "o" + i, i});
+        }
+        return ResultSets.of(new String[] {"id", "order", "MixedCase"},
+                new int[] {Types.INTEGER, Types.VARCHAR, Types.INTEGER}, rows);
+    }
+
+    private JdbcBatchWriter writer(DataSource dataSource, String table) {
+        return new JdbcBatchWriter()
+                .setDataSource(dataSource)
+                .setExecutor(new SimpleAsyncTaskExecutor())
+                .setTable(table)
+                .setWriters(2)
+                .setBatchSize(100);
+    }
+
+    private static void writeAll(JdbcBatchWriter writer, ResultSet rs) throws IOException, SQLException {
+        JdbcBatchWriter.Batcher batcher = writer.batcher();
+        batcher.begin(rs);
+        while (rs.next()) {
+            batcher.write(rs, rs);
+        }
+        batcher.flush();
+    }
+
+    // Closes also if a write fails, as the push does, waiting for the writers to stop
+    private static void writeAllAndClose(JdbcBatchWriter writer, ResultSet rs) throws IOException, SQLException {
+        try {
+            writeAll(writer, rs);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private int count(String table) {
+        return new JdbcTemplate(h2).queryForObject("select count(*) from " + table, Integer.class);
+    }
+
+    @Test
+    public void whenInsert_thenMultiRowStatementsPerBatch() throws Exception {
+        JdbcBatchWriter writer = writer(target(n -> false, null), "narrow");
+        writeAll(writer, narrowRows(1050, 0));
+        writer.close();
+
+        Assertions.assertEquals(1050, writer.getRowsWritten());
+        Assertions.assertEquals(1050, count("narrow"));
+        Assertions.assertEquals(11, statements.size());
+        Assertions.assertTrue(statements.get(0).startsWith("insert into narrow (\"id\", \"order\", \"MixedCase\") values"),
+                statements.get(0));
+    }
+
+    @Test
+    public void whenBatchExceedsBindParameters_thenBatchLowered() throws Exception {
+        List<Object[]> rows = new ArrayList<>();
+        for (int r = 0; r < 1000; r++) {
+            Object[] row = new Object[40];
+            Arrays.fill(row, r);
+            rows.add(row);
+        }
+        String[] names = new String[40];
+        int[] types = new int[40];
+        for (int c = 0; c < 40; c++) {
+            names[c] = "c" + (c + 1);
+            types[c] = Types.INTEGER;
+        }
+
+        JdbcBatchWriter writer = writer(target(n -> false, null), "wide").setBatchSize(1000);
+        writeAll(writer, ResultSets.of(names, types, rows));
+        writer.close();
+
+        Assertions.assertEquals(1000, count("wide"));
+        // 32767 / 40 = 819 rows per statement
+        Assertions.assertEquals(2, statements.size());
+        for (String sql : statements) {
+            Assertions.assertTrue(sql.chars().filter(c -> c == '?').count() <= 32767);
+        }
+    }
+
+    @Test
+    public void whenSerializationFailure_thenRetried() throws Exception {
+        JdbcBatchWriter writer = writer(target(n -> n <= 2, "40001"), "narrow").setWriters(1);
+        writeAll(writer, narrowRows(250, 0));
+        writer.close();
+
+        Assertions.assertEquals(2, writer.getRetries());
+        Assertions.assertEquals(250, writer.getRowsWritten());
+        Assertions.assertEquals(250, count("narrow"));
+    }
+
+    @Test
+    public void whenSerializationFailurePersists_thenFailsAfterMaxRetries() throws Exception {
+        Cancellation cancellation = new Cancellation();
+        JdbcBatchWriter writer = writer(target(n -> true, "40001"), "narrow")
+                .setWriters(1)
+                .setMaxRetries(3)
+                .setCancellation(cancellation);
+
+        IOException e = Assertions.assertThrows(IOException.class, () -> writeAllAndClose(writer, narrowRows(250, 0)));
+        Assertions.assertEquals("40001", ((SQLException) e.getCause()).getSQLState());
+        Assertions.assertEquals(3, writer.getRetries());
+        Assertions.assertEquals(0, writer.getRowsWritten());
+        Assertions.assertTrue(cancellation.isCancelled());
+    }
+
+    @Test
+    public void whenNonRetryableError_thenReadersCancelledAndJobFailed() throws Exception {
+        PushJob job = new PushJob("source", "target", "narrow");
+        AtomicBoolean readerCancelled = new AtomicBoolean();
+        job.getCancellation().register(() -> readerCancelled.set(true));
+        JdbcBatchWriter writer = writer(target(n -> n == 2, "23505"), "narrow")
+                .setCancellation(job.getCancellation());
+        Assertions.assertTrue(job.start(writer));
+
+        Assertions.assertThrows(IOException.class, () -> writeAllAndClose(writer, narrowRows(5000, 0)));
+        job.fail(writer.getFailure());
+
+        Assertions.assertTrue(readerCancelled.get());
+        Assertions.assertEquals(0, writer.getRetries());
+        Assertions.assertEquals(PushJob.Status.FAILED, job.getStatus());
+        Assertions.assertEquals("Injected failure", job.getError());
+        Assertions.assertTrue(job.getRowsWritten() < 5000);
+    }
+
+    @Test
+    public void whenCancelledWhileQueued_thenNotStarted() {
+        PushJob job = new PushJob("source", "target", "narrow");
+        AtomicBoolean leaseReleased = new AtomicBoolean();
+        job.getCancellation().register(() -> leaseReleased.set(true));
+
+        job.cancel();
+        Assertions.assertTrue(leaseReleased.get());
+        Assertions.assertEquals(PushJob.Status.QUEUED, job.getStatus());
+
+        Assertions.assertFalse(job.start(writer(h2, "narrow")));
+        job.fail(new CancellationException());
+        Assertions.assertEquals(PushJob.Status.CANCELLED, job.getStatus());
+        Assertions.assertNull(job.getError());
+        Assertions.assertNull(job.getStartTime());
+    }
+
+    @Test
+    public void whenExpiredWhileQueued_thenLeasesReleasedAndJobFailed() {
+        PushJob job = new PushJob("source", "target", "narrow");
+        AtomicBoolean leaseReleased = new AtomicBoolean();
+        job.getCancellation().register(() -> leaseReleased.set(true));
+
+        Assertions.assertTrue(job.expire("Timed out"));
+        Assertions.assertTrue(leaseReleased.get());
+        Assertions.assertEquals(PushJob.Status.FAILED, job.getStatus());
+        Assertions.assertEquals("Timed out", job.getError());
+
+        // Admitted right after expiry
+        Assertions.assertFalse(job.start(writer(h2, "narrow")));
+        job.fail(new CancellationException());
+        Assertions.assertEquals(PushJob.Status.FAILED, job.getStatus());
+        Assertions.assertEquals("Timed out", job.getError());
+        Assertions.assertNull(job.getStartTime());
+    }
+
+    @Test
+    public void whenRunning_thenNotExpired() {
+        PushJob job = new PushJob("source", "target", "narrow");
+        Assertions.assertTrue(job.start(writer(h2, "narrow")));
+        Assertions.assertFalse(job.expire("Timed out"));
+        Assertions.assertEquals(PushJob.Status.RUNNING, job.getStatus());
+    }
+
+    @Test
+    public void whenCancelledWhileRunning_thenWritesStopAndJobCancelled() throws Exception {
+        PushJob job = new PushJob("source", "target", "narrow");
+        JdbcBatchWriter writer = writer(target(n -> false, null), "narrow")
+                .setCancellation(job.getCancellation());
+        Assertions.assertTrue(job.start(writer));
+        Assertions.assertEquals(PushJob.Status.RUNNING, job.getStatus());
+
+        writeAll(writer, narrowRows(100, 0));
+        job.cancel();
+        IOException e = Assertions.assertThrows(IOException.class, () -> writeAllAndClose(writer, narrowRows(1000, 100)));
+        job.fail(e);
+
+        Assertions.assertEquals(PushJob.Status.CANCELLED, job.getStatus());
+        Assertions.assertNull(job.getError());
+        Assertions.assertTrue(count("narrow") < 1100);
+        Assertions.assertNotNull(job.getEndTime());
+    }
+}
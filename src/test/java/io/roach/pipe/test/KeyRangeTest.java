@@ -0,0 +1,73 @@
+package io.roach.pipe.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import io.roach.pipe.io.KeyRange;
+import io.roach.pipe.io.KeyRangeSplitter;
+
+public class KeyRangeTest {
+    private static DriverManagerDataSource dataSource;
+
+    @BeforeAll
+    public static void setUp() {
+        dataSource = new DriverManagerDataSource("jdbc:h2:mem:keyrange;DB_CLOSE_DELAY=-1");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table nullable_keys (id int primary key, k bigint, code varchar(16))");
+        for (int i = 0; i < 100; i++) {
+            jdbcTemplate.update("insert into nullable_keys values (?, ?, ?)",
+                    i, i % 10 == 0 ? null : (long) i, String.valueOf(i));
+        }
+    }
+
+    private List<Integer> readAll(List<KeyRange> keyRanges) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        List<Integer> ids = new ArrayList<>();
+        for (KeyRange keyRange : keyRanges) {
+            ids.addAll(jdbcTemplate.queryForList("select id from nullable_keys where " + keyRange.toPredicate("k"),
+                    Integer.class, keyRange.toParameters()));
+        }
+        ids.sort(null);
+        return ids;
+    }
+
+    @Test
+    public void whenNullKeys_thenAllRangesTogetherReturnEveryRowOnce() {
+        List<KeyRange> keyRanges = new KeyRangeSplitter()
+                .setDataSource(dataSource)
+                .setFrom("nullable_keys")
+                .setSplitColumn("k")
+                .split(4);
+        Assertions.assertEquals(4, keyRanges.size());
+
+        List<Integer> ids = readAll(keyRanges);
+        Assertions.assertEquals(100, ids.size());
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertEquals(i, ids.get(i));
+        }
+    }
+
+    @Test
+    public void whenNullKeys_thenOnlyInRangeUnboundedBelow() {
+        Assertions.assertEquals(Arrays.asList(0, 10, 20, 30, 40, 50, 60, 70, 80, 90),
+                readAll(Arrays.asList(new KeyRange(null, 0L))));
+        Assertions.assertTrue(readAll(Arrays.asList(new KeyRange(Long.MIN_VALUE, 0L))).isEmpty());
+        Assertions.assertEquals(90, readAll(Arrays.asList(new KeyRange(1L, null))).size());
+    }
+
+    @Test
+    public void whenSplitColumnNotInteger_thenRejected() {
+        KeyRangeSplitter splitter = new KeyRangeSplitter()
+                .setDataSource(dataSource)
+                .setFrom("(select * from nullable_keys) q")
+                .setSplitColumn("code");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> splitter.split(4));
+    }
+}
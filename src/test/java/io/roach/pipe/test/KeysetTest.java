@@ -0,0 +1,70 @@
+package io.roach.pipe.test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import io.roach.pipe.io.JdbcDialect;
+import io.roach.pipe.io.Keyset;
+
+public class KeysetTest {
+    private static final UUID[] IDS = {
+            UUID.fromString("00000000-0000-0000-0000-000000000001"),
+            UUID.fromString("7f000000-0000-0000-0000-000000000000"),
+            UUID.fromString("7f000000-0000-0000-0000-000000000001")
+    };
+
+    private static DriverManagerDataSource dataSource;
+
+    @BeforeAll
+    public static void setUp() {
+        dataSource = new DriverManagerDataSource("jdbc:h2:mem:keyset;DB_CLOSE_DELAY=-1");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table uuid_keys (id uuid primary key)");
+        for (UUID id : IDS) {
+            jdbcTemplate.update("insert into uuid_keys values (?)", id);
+        }
+        jdbcTemplate.execute("create table text_keys (code varchar(16) primary key)");
+        for (String code : Arrays.asList("0099", "00123", "00124", "abc")) {
+            jdbcTemplate.update("insert into text_keys values (?)", code);
+        }
+    }
+
+    private List<String> readAfter(String table, String column, String afterKey, JdbcDialect dialect) {
+        Keyset keyset = Keyset.parse(column, afterKey).resolveTypes(dataSource, dialect, table);
+        return new JdbcTemplate(dataSource).queryForList(
+                "select " + column + " from " + table + " where " + keyset.toPredicate()
+                        + " order by " + keyset.toOrderBy(),
+                String.class, keyset.toParameters());
+    }
+
+    @Test
+    public void whenUuidKey_thenComparedAsUuid() {
+        for (JdbcDialect dialect : JdbcDialect.values()) {
+            Assertions.assertEquals(Arrays.asList(IDS[2].toString()),
+                    readAfter("uuid_keys", "id", IDS[1].toString(), dialect), dialect.name());
+        }
+    }
+
+    @Test
+    public void whenNumericLookingTextKey_thenComparedAsText() {
+        for (JdbcDialect dialect : JdbcDialect.values()) {
+            Assertions.assertEquals(Arrays.asList("00124", "0099", "abc"),
+                    readAfter("text_keys", "code", "00123", dialect), dialect.name());
+        }
+    }
+
+    @Test
+    public void whenPostgres_thenMarkersCastToKeyTypes() {
+        Keyset keyset = Keyset.parse("code,id", "00123," + IDS[0])
+                .resolveTypes(dataSource, JdbcDialect.POSTGRESQL, "(select code, id from text_keys, uuid_keys) q");
+        Assertions.assertEquals("(code, id) > (CAST(? AS VARCHAR), CAST(? AS UUID))", keyset.toPredicate());
+        Assertions.assertArrayEquals(new Object[] {"00123", IDS[0].toString()}, keyset.toParameters());
+    }
+}
@@ -0,0 +1,142 @@
+package io.roach.pipe.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import io.roach.pipe.io.PgCopyOutput;
+
+public class PgCopyOutputTest {
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+
+    /**
+     * @return the fields of the single row, after checking the header and trailer
+     */
+    private DataInputStream encode(int[] types, Object... row) throws IOException, SQLException {
+        String[] names = new String[types.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "c" + i;
+        }
+        ResultSet rs = ResultSets.of(names, types, Collections.singletonList(row));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (PgCopyOutput pgCopyOutput = new PgCopyOutput(out)) {
+            pgCopyOutput.begin(rs);
+            while (rs.next()) {
+                pgCopyOutput.write(rs, rs);
+            }
+            pgCopyOutput.end();
+        }
+
+        byte[] bytes = out.toByteArray();
+        Assertions.assertArrayEquals(SIGNATURE, Arrays.copyOf(bytes, SIGNATURE.length));
+        Assertions.assertEquals(-1, (short) ((bytes[bytes.length - 2] << 8) | (bytes[bytes.length - 1] & 0xFF)));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, SIGNATURE.length + 8,
+                bytes.length - SIGNATURE.length - 10));
+        Assertions.assertEquals(types.length, in.readShort());
+        return in;
+    }
+
+    private static void assertNumeric(DataInputStream in, int weight, int sign, int dscale, int... digits)
+            throws IOException {
+        Assertions.assertEquals(8 + digits.length * 2, in.readInt());
+        Assertions.assertEquals(digits.length, in.readShort());
+        Assertions.assertEquals(weight, in.readShort());
+        Assertions.assertEquals(sign, in.readShort());
+        Assertions.assertEquals(dscale, in.readShort());
+        for (int digit : digits) {
+            Assertions.assertEquals(digit, in.readShort());
+        }
+    }
+
+    @Test
+    public void whenPrimitivesAndNulls_thenFixedWidthFields() throws Exception {
+        DataInputStream in = encode(new int[] {Types.SMALLINT, Types.INTEGER, Types.BIGINT, Types.BIGINT, Types.VARCHAR},
+                -2, 42, Long.MAX_VALUE, null, "abc");
+        Assertions.assertEquals(2, in.readInt());
+        Assertions.assertEquals(-2, in.readShort());
+        Assertions.assertEquals(4, in.readInt());
+        Assertions.assertEquals(42, in.readInt());
+        Assertions.assertEquals(8, in.readInt());
+        Assertions.assertEquals(Long.MAX_VALUE, in.readLong());
+        Assertions.assertEquals(-1, in.readInt());
+        Assertions.assertEquals(3, in.readInt());
+        Assertions.assertEquals('a', in.readByte());
+    }
+
+    @Test
+    public void whenNumerics_thenBase10000Digits() throws Exception {
+        DataInputStream in = encode(new int[] {Types.NUMERIC, Types.NUMERIC, Types.NUMERIC, Types.NUMERIC, Types.NUMERIC},
+                "0.00", "10000", "123.45", "-0.000001", "12345678.9");
+        assertNumeric(in, 0, 0x0000, 2);
+        assertNumeric(in, 1, 0x0000, 0, 1);
+        assertNumeric(in, 0, 0x0000, 2, 123, 4500);
+        assertNumeric(in, -2, 0x4000, 6, 100);
+        assertNumeric(in, 1, 0x0000, 1, 1234, 5678, 9000);
+    }
+
+    @Test
+    public void whenUnsupportedType_thenFailsBeforeOutput() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResultSet rs = ResultSets.of(new String[] {"c0"}, new int[] {Types.ARRAY}, Collections.emptyList());
+        Assertions.assertThrows(SQLFeatureNotSupportedException.class, () -> {
+            try (PgCopyOutput pgCopyOutput = new PgCopyOutput(out)) {
+                pgCopyOutput.begin(rs);
+            }
+        });
+        Assertions.assertEquals(0, out.size());
+    }
+
+    @Test
+    public void whenReadFailsMidStream_thenNoTrailer() throws Exception {
+        List<Object[]> rows = Arrays.asList(new Object[] {1}, new Object[] {2}, new Object[] {3});
+        ResultSet delegate = ResultSets.of(new String[] {"c0"}, new int[] {Types.INTEGER}, rows);
+        ResultSet rs = (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] {ResultSet.class}, (proxy, method, args) -> {
+                    if ("next".equals(method.getName()) && delegate.getRow() == 2) {
+                        throw new SQLException("Connection reset");
+                    }
+                    try {
+                        return method.invoke(delegate, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assertions.assertThrows(SQLException.class, () -> {
+            try (PgCopyOutput pgCopyOutput = new PgCopyOutput(out)) {
+                pgCopyOutput.begin(rs);
+                while (rs.next()) {
+                    pgCopyOutput.write(rs, rs);
+                }
+                pgCopyOutput.end();
+            }
+        });
+
+        // Header and the two rows read, each a field count, a length and an int
+        byte[] bytes = out.toByteArray();
+        Assertions.assertEquals(SIGNATURE.length + 8 + 2 * (2 + 4 + 4), bytes.length);
+        Assertions.assertEquals(2, bytes[bytes.length - 1]);
+    }
+
+    @Test
+    public void whenBitString_thenUnsupported() {
+        ResultSet rs = ResultSets.of(new String[] {"c0"}, new int[] {Types.BIT}, Collections.emptyList());
+        Assertions.assertThrows(SQLFeatureNotSupportedException.class,
+                () -> new PgCopyOutput(new ByteArrayOutputStream()).begin(rs));
+    }
+}
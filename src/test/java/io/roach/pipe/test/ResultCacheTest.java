@@ -0,0 +1,128 @@
+package io.roach.pipe.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.roach.pipe.io.ResultCache;
+
+public class ResultCacheTest {
+    @TempDir
+    Path directory;
+
+    private static void put(ResultCache cache, String key, String content) throws Exception {
+        try (ResultCache.Spill spill = cache.spill(key)) {
+            spill.tee(new ByteArrayOutputStream()).write(content.getBytes());
+            spill.commit();
+        }
+    }
+
+    private static String read(ResultCache cache, String key) throws Exception {
+        try (FileChannel channel = cache.open(key)) {
+            if (channel == null) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+            channel.read(buffer);
+            return new String(buffer.array(), 0, buffer.position());
+        }
+    }
+
+    private long countFiles() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void whenCommitted_thenReadable() throws Exception {
+        ResultCache cache = new ResultCache(directory, 1024, Duration.ofHours(1));
+        put(cache, "k", "hello");
+        Assertions.assertEquals("hello", read(cache, "k"));
+    }
+
+    @Test
+    public void whenMaxSizeExceeded_thenLeastRecentlyUsedEvicted() throws Exception {
+        ResultCache cache = new ResultCache(directory, 10, Duration.ofHours(1));
+        put(cache, "a", "aaaa");
+        put(cache, "b", "bbbb");
+        // Read after b was put, so b is the least recently used
+        Assertions.assertEquals("aaaa", read(cache, "a"));
+        put(cache, "c", "cccc");
+
+        Assertions.assertEquals("aaaa", read(cache, "a"));
+        Assertions.assertNull(read(cache, "b"));
+        Assertions.assertEquals("cccc", read(cache, "c"));
+        Assertions.assertEquals(8, cache.getTotalSize());
+        Assertions.assertEquals(2, countFiles());
+    }
+
+    @Test
+    public void whenExpired_thenNotReadAndDeleted() throws Exception {
+        ResultCache cache = new ResultCache(directory, 1024, Duration.ofMillis(1));
+        put(cache, "k", "hello");
+        Thread.sleep(10);
+
+        Assertions.assertNull(read(cache, "k"));
+        Assertions.assertEquals(0, cache.getTotalSize());
+        Assertions.assertEquals(0, countFiles());
+    }
+
+    @Test
+    public void whenLargerThanMaxSize_thenNotCachedAndCopyUnaffected() throws Exception {
+        ResultCache cache = new ResultCache(directory, 4, Duration.ofHours(1));
+        ByteArrayOutputStream client = new ByteArrayOutputStream();
+        try (ResultCache.Spill spill = cache.spill("k")) {
+            OutputStream out = spill.tee(client);
+            out.write("hel".getBytes());
+            out.write("lo".getBytes());
+            spill.commit();
+        }
+        Assertions.assertEquals("hello", client.toString());
+        Assertions.assertNull(cache.open("k"));
+        Assertions.assertEquals(0, cache.getTotalSize());
+        Assertions.assertEquals(0, countFiles());
+    }
+
+    @Test
+    public void whenCommitFails_thenNotCachedAndCopyUnaffected() throws Exception {
+        ResultCache cache = new ResultCache(directory, 1024, Duration.ofHours(1));
+        ByteArrayOutputStream client = new ByteArrayOutputStream();
+        try (ResultCache.Spill spill = cache.spill("k")) {
+            OutputStream out = spill.tee(client);
+            out.write("hello".getBytes());
+            // The spill file vanishing makes the move into place fail
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path path : (Iterable<Path>) files::iterator) {
+                    Files.delete(path);
+                }
+            }
+            spill.commit();
+        }
+        Assertions.assertEquals("hello", client.toString());
+        Assertions.assertNull(cache.open("k"));
+        Assertions.assertEquals(0, cache.getTotalSize());
+    }
+
+    @Test
+    public void whenStarted_thenOnlyOwnLeftoversDeleted() throws Exception {
+        Path other = Files.createFile(directory.resolve("other.cache"));
+        Path otherTemp = Files.createFile(directory.resolve("other.tmp"));
+        Path leftover = Files.createFile(directory.resolve("roach-pipe-k.cache"));
+
+        new ResultCache(directory, 1024, Duration.ofHours(1));
+
+        Assertions.assertTrue(Files.exists(other));
+        Assertions.assertTrue(Files.exists(otherTemp));
+        Assertions.assertFalse(Files.exists(leftover));
+    }
+}
@@ -0,0 +1,89 @@
+package io.roach.pipe.test;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.JDBCType;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.List;
+
+/**
+ * Builds in-memory, forward-only result sets for tests without a database. Values are
+ * boxed and every call goes through a proxy, so benchmarks use an array backed stub.
+ */
+public abstract class ResultSets {
+    private ResultSets() {
+    }
+
+    public static ResultSetMetaData metaData(String[] names, int[] types) {
+        return (ResultSetMetaData) Proxy.newProxyInstance(
+                ResultSets.class.getClassLoader(),
+                new Class[] {ResultSetMetaData.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getColumnCount":
+                            return types.length;
+                        case "getColumnType":
+                            return types[(Integer) args[0] - 1];
+                        case "getColumnTypeName":
+                            return JDBCType.valueOf(types[(Integer) args[0] - 1]).getName();
+                        case "getColumnName":
+                        case "getColumnLabel":
+                            return names[(Integer) args[0] - 1];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    public static ResultSet of(String[] names, int[] types, List<Object[]> rows) {
+        ResultSetMetaData metaData = metaData(names, types);
+        int[] cursor = {0};
+        Object[] last = {null};
+
+        return (ResultSet) Proxy.newProxyInstance(
+                ResultSets.class.getClassLoader(),
+                new Class[] {ResultSet.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "next":
+                            return ++cursor[0] <= rows.size();
+                        case "getRow":
+                            return cursor[0];
+                        case "getMetaData":
+                            return metaData;
+                        case "wasNull":
+                            return last[0] == null;
+                        case "close":
+                            return null;
+                        default:
+                            break;
+                    }
+
+                    if (method.getName().startsWith("get") && args != null && args[0] instanceof Integer) {
+                        Object value = rows.get(cursor[0] - 1)[(Integer) args[0] - 1];
+                        last[0] = value;
+                        switch (method.getName()) {
+                            case "getLong":
+                                return value != null ? ((Number) value).longValue() : 0L;
+                            case "getInt":
+                                return value != null ? ((Number) value).intValue() : 0;
+                            case "getShort":
+                                return value != null ? ((Number) value).shortValue() : (short) 0;
+                            case "getDouble":
+                                return value != null ? ((Number) value).doubleValue() : 0d;
+                            case "getBoolean":
+                                return value != null && (Boolean) value;
+                            case "getString":
+                                return value != null ? value.toString() : null;
+                            case "getBigDecimal":
+                                return value != null ? new BigDecimal(value.toString()) : null;
+                            default:
+                                return value;
+                        }
+                    }
+
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
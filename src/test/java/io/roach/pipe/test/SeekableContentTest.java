@@ -0,0 +1,88 @@
+package io.roach.pipe.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.roach.pipe.io.SeekableContent;
+
+public class SeekableContentTest {
+    // Larger than the window, so that ranges span several reads
+    private static final int LENGTH = 3 * 1024 * 1024 + 17;
+
+    @TempDir
+    Path directory;
+
+    // As the response stream, which is also a channel
+    private static class ChannelOutputStream extends ByteArrayOutputStream implements WritableByteChannel {
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            byte[] bytes = new byte[n];
+            src.get(bytes);
+            write(bytes, 0, n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+    }
+
+    private byte[] data;
+
+    private Path file() throws Exception {
+        data = new byte[LENGTH];
+        new Random(42).nextBytes(data);
+        return Files.write(directory.resolve("content"), data);
+    }
+
+    @Test
+    public void whenRange_thenWrittenToStreamsAndChannels() throws Exception {
+        Path file = file();
+        for (ByteArrayOutputStream out : Arrays.asList(new ByteArrayOutputStream(), new ChannelOutputStream())) {
+            try (SeekableContent content = SeekableContent.of(FileChannel.open(file))) {
+                Assertions.assertEquals(LENGTH, content.length());
+                content.writeTo(out, 100, LENGTH - 200);
+            }
+            Assertions.assertArrayEquals(Arrays.copyOfRange(data, 100, LENGTH - 100), out.toByteArray());
+        }
+    }
+
+    @Test
+    public void whenSmallRangeAfterLarge_thenOnlyRangeWritten() throws Exception {
+        Path file = file();
+        try (SeekableContent content = SeekableContent.of(FileChannel.open(file))) {
+            content.writeTo(new ChannelOutputStream(), 0, LENGTH);
+            ChannelOutputStream out = new ChannelOutputStream();
+            content.writeTo(out, 10, 5);
+            Assertions.assertArrayEquals(Arrays.copyOfRange(data, 10, 15), out.toByteArray());
+        }
+    }
+
+    @Test
+    public void whenTruncated_thenFails() throws Exception {
+        for (OutputStream out : Arrays.asList(new ByteArrayOutputStream(), new ChannelOutputStream())) {
+            Path file = file();
+            try (SeekableContent content = SeekableContent.of(FileChannel.open(file))) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(LENGTH / 2);
+                }
+                Assertions.assertThrows(EOFException.class, () -> content.writeTo(out, 0, LENGTH));
+            }
+        }
+    }
+}
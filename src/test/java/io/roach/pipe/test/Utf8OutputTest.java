@@ -0,0 +1,84 @@
+package io.roach.pipe.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import io.roach.pipe.io.Utf8Output;
+
+public class Utf8OutputTest {
+    private static final String MIXED = "abc,åäö,€100,😀,日本語" + System.lineSeparator();
+
+    @Test
+    public void whenMultiByteChars_thenEncodedLikeJdk() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append(i).append(MIXED);
+        }
+        String text = sb.toString();
+
+        // Small buffer to cross buffer boundaries mid-sequence
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Utf8Output writer = new Utf8Output(out, 7)) {
+            for (int i = 0; i < text.length(); i += 13) {
+                writer.write(text, i, Math.min(13, text.length() - i));
+            }
+        }
+        Assertions.assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), out.toByteArray());
+    }
+
+    @Test
+    public void whenSurrogatePairSplitAcrossWrites_thenEncodedAsOneCodePoint() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Utf8Output writer = new Utf8Output(out)) {
+            writer.write('\uD83D');
+            writer.write('\uDE00');
+            writer.write("\uDE00x\uD83D");
+        }
+        Assertions.assertEquals("😀?x?", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void whenFirstWrite_thenFlushedAtOnce() throws Exception {
+        AtomicInteger flushes = new AtomicInteger();
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void flush() {
+                flushes.incrementAndGet();
+            }
+        };
+        try (Utf8Output writer = new Utf8Output(out).setFlushBytes(100)) {
+            writer.write("header\n");
+            Assertions.assertEquals(7, out.size());
+            Assertions.assertEquals(1, flushes.get());
+
+            writer.write("row\n");
+            Assertions.assertEquals(7, out.size());
+
+            writer.write(new String(new char[100]));
+            Assertions.assertEquals(111, out.size());
+            Assertions.assertEquals(2, flushes.get());
+        }
+    }
+
+    @Test
+    public void whenWriteFails_thenLaterWritesFail() {
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+        Utf8Output writer = new Utf8Output(out);
+        IOException e = Assertions.assertThrows(IOException.class, () -> writer.write("first"));
+        Assertions.assertEquals("Broken pipe", e.getMessage());
+        e = Assertions.assertThrows(IOException.class, () -> writer.write("second"));
+        Assertions.assertEquals("Broken pipe", e.getCause().getMessage());
+        Assertions.assertDoesNotThrow(writer::close);
+    }
+}